@@ -0,0 +1,51 @@
+package com.example.demo.config;
+
+import com.example.demo.service.LocalHashingEmbeddingModel;
+import com.google.api.gax.core.FixedCredentialsProvider;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.aiplatform.v1.PredictionServiceSettings;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vertexai.embedding.VertexAiEmbeddingConnectionDetails;
+import org.springframework.ai.vertexai.embedding.text.VertexAiTextEmbeddingModel;
+import org.springframework.ai.vertexai.embedding.text.VertexAiTextEmbeddingOptions;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+@Configuration
+public class EmbeddingConfig {
+
+    // keepup.embedding.provider=vertex -> Vertex AI text embeddings (needs network + credentials)
+    @Bean
+    @ConditionalOnProperty(name = "keepup.embedding.provider", havingValue = "vertex")
+    public EmbeddingModel vertexEmbeddingModel() throws IOException {
+        System.out.println("✅ MANUALLY STARTING VERTEX AI EMBEDDING MODEL");
+
+        GoogleCredentials credentials = GoogleCredentials.fromStream(
+                        new FileInputStream("secrets/service-account.json"))
+                .createScoped("https://www.googleapis.com/auth/cloud-platform");
+
+        VertexAiEmbeddingConnectionDetails connectionDetails = VertexAiEmbeddingConnectionDetails.builder()
+                .projectId("project-e0914f81-9c04-40ed-a44")
+                .location("asia-south1")
+                .predictionServiceSettings(PredictionServiceSettings.newBuilder()
+                        .setEndpoint("asia-south1-aiplatform.googleapis.com:443")
+                        .setCredentialsProvider(FixedCredentialsProvider.create(credentials))
+                        .build())
+                .build();
+
+        return new VertexAiTextEmbeddingModel(connectionDetails,
+                VertexAiTextEmbeddingOptions.builder().model("text-embedding-004").build());
+    }
+
+    // Default: deterministic local model, works offline and in tests
+    @Bean
+    @ConditionalOnProperty(name = "keepup.embedding.provider", havingValue = "local", matchIfMissing = true)
+    public EmbeddingModel localEmbeddingModel() {
+        System.out.println("✅ USING LOCAL HASHING EMBEDDING MODEL");
+        return new LocalHashingEmbeddingModel();
+    }
+}
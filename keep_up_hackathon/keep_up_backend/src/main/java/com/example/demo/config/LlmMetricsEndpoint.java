@@ -0,0 +1,25 @@
+package com.example.demo.config;
+
+import com.example.demo.service.LlmMetrics;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+// GET /actuator/llm: calls, error rate, latency, tokens and estimated cost per VertexAiService operation
+@Component
+@Endpoint(id = "llm")
+public class LlmMetricsEndpoint {
+
+    private final LlmMetrics llmMetrics;
+
+    public LlmMetricsEndpoint(LlmMetrics llmMetrics) {
+        this.llmMetrics = llmMetrics;
+    }
+
+    @ReadOperation
+    public Map<String, Object> llm() {
+        return llmMetrics.snapshot();
+    }
+}
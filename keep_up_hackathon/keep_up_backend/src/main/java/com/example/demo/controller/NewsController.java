@@ -1,28 +1,36 @@
 package com.example.demo.controller;
 
+import com.example.demo.model.GenerationReport;
+import com.example.demo.model.QuizResult;
+import com.example.demo.model.QuizSubmission;
 import com.example.demo.model.Toon;
+import com.example.demo.service.NewsChatService;
+import com.example.demo.service.NewsGenerationPipeline;
 import com.example.demo.service.NewsIndexingService;
 import com.example.demo.service.QuizService;
+import com.example.demo.service.QuizStore;
 import com.example.demo.service.UserService;
-import com.example.demo.service.VertexAiService;
 import com.example.demo.service.CatchUpService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.time.LocalDate;
 import java.util.Map;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.concurrent.ExecutionException;
-import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api/news")
 public class NewsController {
 
-    private final VertexAiService vertexAiService;
     private final NewsIndexingService newsIndexingService;
     private final QuizService quizService;
+    private final NewsGenerationPipeline generationPipeline;
+    private final NewsChatService newsChatService;
 
     @Autowired
     private UserService userService;
@@ -30,56 +38,62 @@ public class NewsController {
     @Autowired
     private CatchUpService catchUpService;
 
-    public NewsController(VertexAiService vertexAiService,
-                          NewsIndexingService newsIndexingService,
-                          QuizService quizService) {
-        this.vertexAiService = vertexAiService;
+    public NewsController(NewsIndexingService newsIndexingService,
+                          QuizService quizService,
+                          NewsGenerationPipeline generationPipeline,
+                          NewsChatService newsChatService) {
         this.newsIndexingService = newsIndexingService;
         this.quizService = quizService;
+        this.generationPipeline = generationPipeline;
+        this.newsChatService = newsChatService;
     }
 
     // --- NEWS GENERATION ---
+    // Research first, then cards and both quizzes in parallel; returns status and timing per stage
     @GetMapping("/generate")
-    public String generateNews(@RequestParam String region, @RequestParam(required = false) String date) {
+    public GenerationReport generateNews(@RequestParam String region, @RequestParam(required = false) String date) {
         String targetDate = (date != null && !date.isEmpty()) ? date : LocalDate.now().toString();
-
-        System.out.println("1. Researching News for " + targetDate + "...");
-        String rawFacts = vertexAiService.researchNews(region, targetDate);
-
-        System.out.println("2. Formatting Cards...");
-        String toonJson = vertexAiService.formatToToonJson(rawFacts);
-        newsIndexingService.processAndSave(toonJson, targetDate);
-
-        System.out.println("3. Generating Main Daily Challenge...");
-        String mainQuizJson = vertexAiService.generateQuizFromNews(rawFacts);
-        quizService.saveDailyQuiz(mainQuizJson);
-
-        System.out.println("4. Generating Category Quizzes...");
-        String categoryQuizJson = vertexAiService.generateCategoryWiseQuiz(rawFacts);
-        quizService.saveCategoryQuizzes(categoryQuizJson, targetDate);
-
-        return "Generation Complete for " + targetDate;
+        return generationPipeline.run(region, targetDate);
     }
 
     // --- QUIZ ENDPOINTS ---
 
     // 1. Get Main Daily Challenge (Home Screen)
+    // answers=false leaves out correctIndex/explanation for clients that grade through /quiz/submit
     @GetMapping("/quiz")
-    public ResponseEntity<?> getQuiz(@RequestParam(required = false) String userId) throws ExecutionException, InterruptedException {
-        String quizJson = quizService.getDailyQuiz();
-        return ResponseEntity.ok(quizJson);
+    public ResponseEntity<?> getQuiz(@RequestParam(required = false) String userId,
+                                     @RequestParam(defaultValue = "true") boolean answers) throws ExecutionException, InterruptedException {
+        QuizStore.Quiz quiz = quizService.getDailyQuiz();
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(answers ? quiz.json() : quiz.publicJson());
     }
 
     // 2. Get Specific Category Quiz (Explore Screen)
     @GetMapping("/quiz/category")
-    public ResponseEntity<?> getCategoryQuiz(@RequestParam String category) throws ExecutionException, InterruptedException {
+    public ResponseEntity<?> getCategoryQuiz(@RequestParam String category,
+                                             @RequestParam(defaultValue = "true") boolean answers) throws ExecutionException, InterruptedException {
         String today = LocalDate.now().toString();
-        List<Map<String, Object>> questions = quizService.getQuizByCategory(today, category);
+        QuizStore.Quiz quiz = quizService.getCategoryQuiz(today, category);
 
-        if (questions.isEmpty()) {
+        if (quiz == null) {
             return ResponseEntity.status(404).body("No quiz available for " + category);
         }
-        return ResponseEntity.ok(questions);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(answers ? quiz.json() : quiz.publicJson());
+    }
+
+    // 3. Grade on the server and award XP in the same request (replaces grading locally + /user/xp)
+    @PostMapping("/quiz/submit")
+    public ResponseEntity<?> submitQuiz(@RequestBody QuizSubmission submission) throws ExecutionException, InterruptedException {
+        try {
+            QuizResult result = quizService.submit(submission);
+            if (result == null) {
+                return ResponseEntity.status(404).body("No quiz available for " + submission.getQuizId());
+            }
+            return ResponseEntity.ok(result);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (NoSuchElementException e) {
+            return ResponseEntity.status(404).body(e.getMessage());
+        }
     }
 
     // --- ✅ USER & XP (UPDATED) ---
@@ -94,19 +108,31 @@ public class NewsController {
     }
 
     // --- FEED & CHAT ---
+    // Without pageSize/pageToken this keeps returning the plain list the app already uses
     @GetMapping("/feed")
-    public List<Toon> getNewsFeed(@RequestParam(required = false) String date) {
-        return newsIndexingService.getAllNewsSegments(date);
+    public ResponseEntity<?> getNewsFeed(@RequestParam(required = false) String date,
+                                         @RequestParam(required = false) Integer pageSize,
+                                         @RequestParam(required = false) String pageToken) throws ExecutionException, InterruptedException {
+        try {
+            if (pageSize == null && pageToken == null) {
+                return ResponseEntity.ok(newsIndexingService.getAllNewsSegments(date));
+            }
+            int size = pageSize != null ? pageSize : NewsIndexingService.DEFAULT_PAGE_SIZE;
+            return ResponseEntity.ok(newsIndexingService.getNewsPage(date, size, pageToken));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
     }
 
     @GetMapping("/chat")
     public String chatWithNews(@RequestParam String question) {
-        String keywords = vertexAiService.extractSearchKeywords(question);
-        List<Toon> matches = newsIndexingService.searchNewsByKeywords(keywords);
-        List<String> matchStrings = matches.stream()
-                .map(t -> t.getTitle() + ": " + t.getDescription())
-                .collect(Collectors.toList());
-        return vertexAiService.chatWithSmartRouting(question, matchStrings);
+        return newsChatService.answer(question);
+    }
+
+    // Same answer, streamed: "token" events while Gemini generates, then "done" (or "error")
+    @GetMapping(value = "/chat/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamChatWithNews(@RequestParam String question) {
+        return newsChatService.streamAnswer(question);
     }
 
     // --- USER MANAGEMENT ---
@@ -125,14 +151,30 @@ public class NewsController {
         return userService.updateUserName(userId, newName);
     }
 
+    // Pre-serialized per region; the body is the same list of {date, summary} as before
     @GetMapping("/catchup")
-    public List<Map<String, Object>> getCatchUp() throws Exception {
-        return catchUpService.getWeeklyCatchUp("US");
+    public ResponseEntity<?> getCatchUp(@RequestParam(defaultValue = "US") String region) throws Exception {
+        try {
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(catchUpService.getWeeklyCatchUpJson(region));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
     }
 
+    // Global by default; league= or cohort= select that board. Same [{rank, name, xp}] shape for all
     @GetMapping("/leaderboard")
-    public List<Map<String, Object>> getLeaderboard() throws ExecutionException, InterruptedException {
-        return userService.getGlobalLeaderboard();
+    public ResponseEntity<?> getLeaderboard(@RequestParam(required = false) String league,
+                                            @RequestParam(required = false) String cohort) throws ExecutionException, InterruptedException {
+        try {
+            byte[] board = userService.getLeaderboardJson(league, cohort);
+            if (board != null) return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(board);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+
+        // Still loading: the global board can be queried, the others can't yet
+        if (league == null && cohort == null) return ResponseEntity.ok(userService.getGlobalLeaderboard());
+        return ResponseEntity.status(503).body("Leaderboards are still loading");
     }
 
     // --- BOOKMARKS ---
@@ -146,8 +188,19 @@ public class NewsController {
         return userService.removeBookmark(userId, newsId);
     }
 
+    // Without pageSize/pageToken this keeps returning the plain list the app already uses
     @GetMapping("/user/{userId}/bookmarks")
-    public List<Toon> getUserBookmarks(@PathVariable String userId) throws Exception {
-        return userService.getBookmarks(userId);
+    public ResponseEntity<?> getUserBookmarks(@PathVariable String userId,
+                                              @RequestParam(required = false) Integer pageSize,
+                                              @RequestParam(required = false) String pageToken) throws Exception {
+        if (pageSize == null && pageToken == null) {
+            return ResponseEntity.ok(userService.getBookmarks(userId));
+        }
+        try {
+            int size = pageSize != null ? pageSize : NewsIndexingService.DEFAULT_PAGE_SIZE;
+            return ResponseEntity.ok(userService.getBookmarkPage(userId, size, pageToken));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,70 @@
+package com.example.demo.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Outcome of one /generate run: status and timing for every pipeline stage (returned by /generate)
+public class GenerationReport {
+
+    private String date;
+    private long elapsedMs;
+    private Map<String, StageReport> stages = new LinkedHashMap<>(); // In pipeline order
+    private Map<String, WriteReport> writes = new LinkedHashMap<>(); // Firestore acks per saved group
+
+    public GenerationReport() {}
+
+    public GenerationReport(String date) {
+        this.date = date;
+    }
+
+    public boolean isComplete() {
+        return stages.values().stream().allMatch(s -> StageReport.OK.equals(s.getStatus()))
+                && writes.values().stream().allMatch(WriteReport::isComplete);
+    }
+
+    // Getters and Setters
+    public String getDate() { return date; }
+    public void setDate(String date) { this.date = date; }
+
+    public long getElapsedMs() { return elapsedMs; }
+    public void setElapsedMs(long elapsedMs) { this.elapsedMs = elapsedMs; }
+
+    public Map<String, StageReport> getStages() { return stages; }
+    public void setStages(Map<String, StageReport> stages) { this.stages = stages; }
+
+    public Map<String, WriteReport> getWrites() { return writes; }
+    public void setWrites(Map<String, WriteReport> writes) { this.writes = writes; }
+
+    public static class StageReport {
+        public static final String OK = "ok";
+        public static final String FAILED = "failed";
+        public static final String TIMED_OUT = "timed_out";
+        public static final String SKIPPED = "skipped";   // An upstream stage did not succeed
+
+        private String status;
+        private long startedAtMs;  // Offset from the start of the run
+        private long elapsedMs;
+        private String error;
+
+        public StageReport() {}
+
+        public StageReport(String status, long startedAtMs, long elapsedMs, String error) {
+            this.status = status;
+            this.startedAtMs = startedAtMs;
+            this.elapsedMs = elapsedMs;
+            this.error = error;
+        }
+
+        public String getStatus() { return status; }
+        public void setStatus(String status) { this.status = status; }
+
+        public long getStartedAtMs() { return startedAtMs; }
+        public void setStartedAtMs(long startedAtMs) { this.startedAtMs = startedAtMs; }
+
+        public long getElapsedMs() { return elapsedMs; }
+        public void setElapsedMs(long elapsedMs) { this.elapsedMs = elapsedMs; }
+
+        public String getError() { return error; }
+        public void setError(String error) { this.error = error; }
+    }
+}
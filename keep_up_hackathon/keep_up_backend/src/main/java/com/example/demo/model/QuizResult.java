@@ -0,0 +1,72 @@
+package com.example.demo.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Graded quiz, with the XP outcome of the same request
+public class QuizResult {
+    private String quizId;
+    private int score;
+    private int totalQuestions;
+    private int xpEarned;        // 0 when the category was already played today
+    private boolean xpAwarded;
+    private long xp;             // User's total after this submission
+    private String message;      // Same wording as /user/xp
+    private List<QuestionResult> questions = new ArrayList<>();
+
+    public QuizResult() {}
+
+    // Getters and Setters
+    public String getQuizId() { return quizId; }
+    public void setQuizId(String quizId) { this.quizId = quizId; }
+
+    public int getScore() { return score; }
+    public void setScore(int score) { this.score = score; }
+
+    public int getTotalQuestions() { return totalQuestions; }
+    public void setTotalQuestions(int totalQuestions) { this.totalQuestions = totalQuestions; }
+
+    public int getXpEarned() { return xpEarned; }
+    public void setXpEarned(int xpEarned) { this.xpEarned = xpEarned; }
+
+    public boolean isXpAwarded() { return xpAwarded; }
+    public void setXpAwarded(boolean xpAwarded) { this.xpAwarded = xpAwarded; }
+
+    public long getXp() { return xp; }
+    public void setXp(long xp) { this.xp = xp; }
+
+    public String getMessage() { return message; }
+    public void setMessage(String message) { this.message = message; }
+
+    public List<QuestionResult> getQuestions() { return questions; }
+    public void setQuestions(List<QuestionResult> questions) { this.questions = questions; }
+
+    // Per question: what was chosen, the right answer and why
+    public static class QuestionResult {
+        private Integer selectedIndex;
+        private int correctIndex;
+        private boolean correct;
+        private String explanation;
+
+        public QuestionResult() {}
+
+        public QuestionResult(Integer selectedIndex, int correctIndex, boolean correct, String explanation) {
+            this.selectedIndex = selectedIndex;
+            this.correctIndex = correctIndex;
+            this.correct = correct;
+            this.explanation = explanation;
+        }
+
+        public Integer getSelectedIndex() { return selectedIndex; }
+        public void setSelectedIndex(Integer selectedIndex) { this.selectedIndex = selectedIndex; }
+
+        public int getCorrectIndex() { return correctIndex; }
+        public void setCorrectIndex(int correctIndex) { this.correctIndex = correctIndex; }
+
+        public boolean isCorrect() { return correct; }
+        public void setCorrect(boolean correct) { this.correct = correct; }
+
+        public String getExplanation() { return explanation; }
+        public void setExplanation(String explanation) { this.explanation = explanation; }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.demo.model;
+
+import java.util.List;
+
+// Body of POST /quiz/submit: the chosen option index per question, in the order the quiz was served
+public class QuizSubmission {
+    private String userId;
+    private String quizId;   // "Daily" or a category name, as in /user/xp
+    private String date;     // Category quiz date; defaults to today
+    private List<Integer> answers;
+
+    public QuizSubmission() {}
+
+    // Getters and Setters
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+
+    public String getQuizId() { return quizId; }
+    public void setQuizId(String quizId) { this.quizId = quizId; }
+
+    public String getDate() { return date; }
+    public void setDate(String date) { this.date = date; }
+
+    public List<Integer> getAnswers() { return answers; }
+    public void setAnswers(List<Integer> answers) { this.answers = answers; }
+}
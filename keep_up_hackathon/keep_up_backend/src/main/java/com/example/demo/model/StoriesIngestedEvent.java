@@ -0,0 +1,15 @@
+package com.example.demo.model;
+
+// Published after processAndSave has stored new stories for a date
+public class StoriesIngestedEvent {
+    private final String date;   // publishedDate of the stories, e.g. "2026-01-06"
+    private final int count;
+
+    public StoriesIngestedEvent(String date, int count) {
+        this.date = date;
+        this.count = count;
+    }
+
+    public String getDate() { return date; }
+    public int getCount() { return count; }
+}
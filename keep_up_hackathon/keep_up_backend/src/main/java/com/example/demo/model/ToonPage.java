@@ -0,0 +1,23 @@
+package com.example.demo.model;
+
+import java.util.List;
+
+// One page of stories plus an opaque token for the next one (null when there are no more)
+public class ToonPage {
+    private List<Toon> items;
+    private String nextPageToken;
+
+    public ToonPage() {}
+
+    public ToonPage(List<Toon> items, String nextPageToken) {
+        this.items = items;
+        this.nextPageToken = nextPageToken;
+    }
+
+    // Getters and Setters
+    public List<Toon> getItems() { return items; }
+    public void setItems(List<Toon> items) { this.items = items; }
+
+    public String getNextPageToken() { return nextPageToken; }
+    public void setNextPageToken(String nextPageToken) { this.nextPageToken = nextPageToken; }
+}
@@ -0,0 +1,92 @@
+package com.example.demo.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Per-item acknowledgement for a group of Firestore writes (returned by /generate)
+public class WriteReport {
+
+    private String label;        // e.g., "toons 2026-01-06"
+    private String mode;         // "batch" (atomic) or "bulk"
+    private String error;        // Set when the whole group failed before writing (e.g., bad JSON)
+    private long elapsedMs;
+    private List<ItemAck> items = new ArrayList<>();
+    private List<String> rejected = new ArrayList<>(); // Model output items that failed validation
+    private List<String> duplicates = new ArrayList<>(); // Near-duplicate stories merged or dropped
+
+    public WriteReport() {}
+
+    public WriteReport(String label) {
+        this.label = label;
+    }
+
+    public static WriteReport failed(String label, String error) {
+        WriteReport report = new WriteReport(label);
+        report.setError(error);
+        return report;
+    }
+
+    public void addItem(ItemAck item) { items.add(item); }
+
+    public int getSucceeded() {
+        return (int) items.stream().filter(ItemAck::isOk).count();
+    }
+
+    public int getFailed() {
+        return items.size() - getSucceeded();
+    }
+
+    public boolean isComplete() {
+        return error == null && getFailed() == 0;
+    }
+
+    // Getters and Setters
+    public String getLabel() { return label; }
+    public void setLabel(String label) { this.label = label; }
+
+    public String getMode() { return mode; }
+    public void setMode(String mode) { this.mode = mode; }
+
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+
+    public long getElapsedMs() { return elapsedMs; }
+    public void setElapsedMs(long elapsedMs) { this.elapsedMs = elapsedMs; }
+
+    public List<ItemAck> getItems() { return items; }
+    public void setItems(List<ItemAck> items) { this.items = items; }
+
+    public List<String> getRejected() { return rejected; }
+    public void setRejected(List<String> rejected) { this.rejected = rejected; }
+
+    public List<String> getDuplicates() { return duplicates; }
+    public void setDuplicates(List<String> duplicates) { this.duplicates = duplicates; }
+
+    public static class ItemAck {
+        private String path;     // e.g., "toon_index/abc-123"
+        private boolean ok;
+        private int attempts;
+        private String error;
+
+        public ItemAck() {}
+
+        public ItemAck(String path, boolean ok, int attempts, String error) {
+            this.path = path;
+            this.ok = ok;
+            this.attempts = attempts;
+            this.error = error;
+        }
+
+        public String getPath() { return path; }
+        public void setPath(String path) { this.path = path; }
+
+        public boolean isOk() { return ok; }
+        public void setOk(boolean ok) { this.ok = ok; }
+
+        public int getAttempts() { return attempts; }
+        public void setAttempts(int attempts) { this.attempts = attempts; }
+
+        public String getError() { return error; }
+        public void setError(String error) { this.error = error; }
+    }
+}
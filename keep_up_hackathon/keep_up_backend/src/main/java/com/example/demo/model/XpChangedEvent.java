@@ -0,0 +1,31 @@
+package com.example.demo.model;
+
+// Published when XP is awarded (as soon as it's accepted, before the write-behind flush) or a user is created
+public class XpChangedEvent {
+    private final String userId;
+    private final String name;
+    private final String league;     // null if the user has none yet
+    private final String cohortId;   // null if the user has none
+    private final String category;   // Category locked for today by this award; null for a new user
+    private final Long previousXp;   // null for a new user
+    private final long xp;
+
+    public XpChangedEvent(String userId, String name, String league, String cohortId, String category,
+                          Long previousXp, long xp) {
+        this.userId = userId;
+        this.name = name;
+        this.league = league;
+        this.cohortId = cohortId;
+        this.category = category;
+        this.previousXp = previousXp;
+        this.xp = xp;
+    }
+
+    public String getUserId() { return userId; }
+    public String getName() { return name; }
+    public String getLeague() { return league; }
+    public String getCohortId() { return cohortId; }
+    public String getCategory() { return category; }
+    public Long getPreviousXp() { return previousXp; }
+    public long getXp() { return xp; }
+}
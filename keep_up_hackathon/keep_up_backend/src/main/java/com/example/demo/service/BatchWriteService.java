@@ -0,0 +1,171 @@
+package com.example.demo.service;
+
+import com.example.demo.model.WriteReport;
+import com.google.api.core.ApiFuture;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.firestore.*;
+import io.grpc.Status;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Single write path for multi-document saves.
+ * Small groups commit as one atomic WriteBatch, so one save (a day's stories, the daily quiz, the
+ * category quizzes) never lands half-way. Each of those is its own call, though: a generation run is
+ * not atomic as a whole, and a restart between stages can leave stories saved without their quizzes
+ * (the pipeline's report shows which stages persisted). Larger groups go through a BulkWriter, which
+ * parallelises and rate-limits the RPCs and retries failed items individually. Every write is
+ * awaited and acknowledged.
+ */
+@Service
+public class BatchWriteService {
+
+    // Firestore's hard limit on operations per WriteBatch
+    static final int MAX_BATCH_SIZE = 500;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BACKOFF_MS = 200;
+    private static final long COMMIT_TIMEOUT_SECONDS = 30;
+    private static final int MAX_OPS_PER_SECOND = 500;
+    // Only these are worth retrying; anything else (INVALID_ARGUMENT, PERMISSION_DENIED, ...) fails the same way again
+    private static final EnumSet<Status.Code> TRANSIENT_CODES = EnumSet.of(
+            Status.Code.ABORTED, Status.Code.UNAVAILABLE, Status.Code.DEADLINE_EXCEEDED, Status.Code.RESOURCE_EXHAUSTED);
+
+    private final Firestore db;
+
+    public BatchWriteService(Firestore db) {
+        this.db = db;
+    }
+
+    // A document to write: collection/docId <- data (POJO or Map)
+    public record PendingWrite(String collection, String docId, Object data) {
+        String path() { return collection + "/" + docId; }
+    }
+
+    public WriteReport write(String label, List<PendingWrite> writes) {
+        return writes.size() <= MAX_BATCH_SIZE ? commitAtomically(label, writes) : bulkWrite(label, writes);
+    }
+
+    // ✅ 1. ATOMIC: everything lands or nothing does; transient failures retry the whole batch with backoff
+    public WriteReport commitAtomically(String label, List<PendingWrite> writes) {
+        if (writes.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("WriteBatch is limited to " + MAX_BATCH_SIZE + " writes, got " + writes.size());
+        }
+
+        long start = System.currentTimeMillis();
+        WriteReport report = new WriteReport(label);
+        report.setMode("batch");
+        if (writes.isEmpty()) return report;
+
+        String lastError = null;
+        int attempts = 0;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                WriteBatch batch = db.batch();
+                for (PendingWrite w : writes) {
+                    batch.set(db.collection(w.collection()).document(w.docId()), w.data());
+                }
+                batch.commit().get(COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+                for (PendingWrite w : writes) {
+                    report.addItem(new WriteReport.ItemAck(w.path(), true, attempt, null));
+                }
+                report.setElapsedMs(System.currentTimeMillis() - start);
+                System.out.println("💾 Committed " + writes.size() + " writes for " + label + " (attempt " + attempt + ")");
+                return report;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                lastError = "Interrupted";
+                break;
+            } catch (Exception e) {
+                lastError = e.getMessage();
+                attempts = attempt;
+                boolean retry = isTransient(e);
+                System.err.println("⚠️ Batch commit failed for " + label + " (attempt " + attempt + ", "
+                        + (retry ? "transient" : "permanent") + "): " + lastError);
+                if (!retry || attempt == MAX_ATTEMPTS || !sleepBackoff(attempt)) break;
+            }
+        }
+
+        for (PendingWrite w : writes) {
+            report.addItem(new WriteReport.ItemAck(w.path(), false, attempts, lastError));
+        }
+        report.setElapsedMs(System.currentTimeMillis() - start);
+        return report;
+    }
+
+    // ✅ 2. BULK: parallel, rate-limited, per-item retries (no cross-document atomicity)
+    public WriteReport bulkWrite(String label, List<PendingWrite> writes) {
+        long start = System.currentTimeMillis();
+        WriteReport report = new WriteReport(label);
+        report.setMode("bulk");
+        if (writes.isEmpty()) return report;
+
+        Map<String, Integer> failedAttempts = new ConcurrentHashMap<>();
+        BulkWriter writer = db.bulkWriter(BulkWriterOptions.builder()
+                .setMaxOpsPerSecond(MAX_OPS_PER_SECOND)
+                .build());
+        writer.addWriteErrorListener(error -> {
+            failedAttempts.put(error.getDocumentReference().getPath(), error.getFailedAttempts());
+            return TRANSIENT_CODES.contains(error.getStatus().getCode()) && error.getFailedAttempts() < MAX_ATTEMPTS;
+        });
+
+        List<ApiFuture<WriteResult>> futures = new ArrayList<>(writes.size());
+        for (PendingWrite w : writes) {
+            futures.add(writer.set(db.collection(w.collection()).document(w.docId()), w.data()));
+        }
+        writer.close(); // Flushes and waits for every write (including retries)
+
+        for (int i = 0; i < writes.size(); i++) {
+            PendingWrite w = writes.get(i);
+            int failures = failedAttempts.getOrDefault(w.path(), 0);
+            try {
+                futures.get(i).get();
+                report.addItem(new WriteReport.ItemAck(w.path(), true, failures + 1, null));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                report.addItem(new WriteReport.ItemAck(w.path(), false, failures, "Interrupted"));
+            } catch (ExecutionException e) {
+                report.addItem(new WriteReport.ItemAck(w.path(), false, failures, e.getCause().getMessage()));
+            }
+        }
+
+        report.setElapsedMs(System.currentTimeMillis() - start);
+        System.out.println("💾 Bulk wrote " + report.getSucceeded() + "/" + writes.size() + " docs for " + label);
+        return report;
+    }
+
+    // Walks the cause chain for a gRPC/gax status; a client-side timeout counts as DEADLINE_EXCEEDED
+    static boolean isTransient(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof TimeoutException) return true;
+            if (t instanceof ApiException api) {
+                StatusCode.Code code = api.getStatusCode().getCode();
+                return code == StatusCode.Code.ABORTED || code == StatusCode.Code.UNAVAILABLE
+                        || code == StatusCode.Code.DEADLINE_EXCEEDED || code == StatusCode.Code.RESOURCE_EXHAUSTED;
+            }
+            if (t instanceof FirestoreException fe && fe.getStatus() != null) {
+                return TRANSIENT_CODES.contains(fe.getStatus().getCode());
+            }
+        }
+        return false;
+    }
+
+    private boolean sleepBackoff(int attempt) {
+        try {
+            Thread.sleep(BACKOFF_MS * (1L << (attempt - 1)));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -1,104 +1,325 @@
 package com.example.demo.service;
 
+import com.example.demo.model.StoriesIngestedEvent;
 import com.example.demo.model.Toon;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.cloud.firestore.DocumentSnapshot;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
 import com.google.cloud.firestore.Query;
 import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.SetOptions;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.*;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
 
 @Service
 public class CatchUpService {
 
+    private static final String COLLECTION = "daily_catchup";
+
     private final Firestore db;
     private final NewsIndexingService newsIndexingService;
     private final VertexAiService vertexAiService;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final LlmJsonParser llmJsonParser;
+    private final ContextPacker contextPacker;
+
+    // Allow-list: the only regions served and generated, all backfilled even before anyone asks for them
+    private final Set<String> regions;
+
+    private static final int CONTEXT_BUDGET_TOKENS = 3000;
+    private static final int BACKFILL_DAYS = 3;
+    private static final int WEEK_DAYS = 7;
+    private static final long FIRST_SNAPSHOT_WAIT_SECONDS = 10;
+    private static final Pattern REGION = Pattern.compile("[A-Z]{2,8}");
+    private static final byte[] EMPTY_RESPONSE = "[]".getBytes(StandardCharsets.UTF_8);
+    // Matches the CATCHUP bulkhead in VertexAiService, so queued generations wait here instead of
+    // timing out on the bulkhead and being dropped
+    private static final int GENERATION_CONCURRENCY = 2;
+
+    // region|date -> running generation, so concurrent triggers for one summary share a single Gemini call
+    private final Map<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+    private final ExecutorService generator = Executors.newFixedThreadPool(GENERATION_CONCURRENCY, r -> {
+        Thread t = new Thread(r, "catchup-generator");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // region -> assembled 7-day response, rebuilt by that region's listener whenever one of its summaries changes
+    private final Map<String, RegionSnapshot> snapshots = new ConcurrentHashMap<>();
+
+    // `dates` = days with a current summary; a stale one is still served but counts as missing
+    private record Built(byte[] json, Set<String> dates) {}
+
+    private static final class RegionSnapshot {
+        final CompletableFuture<Void> ready = new CompletableFuture<>();
+        volatile ListenerRegistration listener;
+        volatile Built built = new Built(EMPTY_RESPONSE, Set.of());
+    }
 
-    public CatchUpService(Firestore db, NewsIndexingService newsIndexingService, VertexAiService vertexAiService) {
+    public CatchUpService(Firestore db, NewsIndexingService newsIndexingService, VertexAiService vertexAiService,
+                          LlmJsonParser llmJsonParser, ContextPacker contextPacker,
+                          @Value("${keepup.catchup.region:US}") String defaultRegion,
+                          @Value("${keepup.catchup.regions:US}") List<String> regions) {
         this.db = db;
         this.newsIndexingService = newsIndexingService;
         this.vertexAiService = vertexAiService;
+        this.llmJsonParser = llmJsonParser;
+        this.contextPacker = contextPacker;
+
+        Set<String> allowed = new LinkedHashSet<>();
+        allowed.add(normalizeRegion(defaultRegion));
+        regions.forEach(region -> allowed.add(normalizeRegion(region)));
+        this.regions = Collections.unmodifiableSet(allowed);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        generator.shutdownNow();
+        snapshots.values().forEach(snapshot -> {
+            if (snapshot.listener != null) snapshot.listener.remove();
+        });
     }
 
-    public List<Map<String, Object>> getWeeklyCatchUp(String region) throws Exception {
+    // Request path: the region's pre-serialized response (UTF-8 JSON, shared - don't modify); never calls Gemini
+    public byte[] getWeeklyCatchUpJson(String region) throws Exception {
+        String key = normalizeRegion(region);
+        if (!regions.contains(key)) throw new IllegalArgumentException("Unsupported region: " + region);
 
-        // 1. BACKFILL: Ensure summaries exist for last 3 days
-        for (int i = 0; i < 3; i++) {
-            String targetDate = LocalDate.now().minusDays(i).toString();
-            ensureSummaryExistsForDate(targetDate, region);
+        // 1. READ: the listener-maintained snapshot, or a one-off query if it can't be had
+        Built built;
+        RegionSnapshot snapshot = snapshot(key);
+        if (snapshot != null && awaitFirstSnapshot(snapshot)) {
+            built = snapshot.built;
+        } else {
+            built = build(recentSummaries(key).get().get().getDocuments());
         }
 
-        // 2. FETCH: Get summaries sorted by date desc
-        List<QueryDocumentSnapshot> docs = db.collection("daily_catchup")
-                .orderBy("date", Query.Direction.DESCENDING)
-                .limit(7)
-                .get().get().getDocuments();
+        // 2. Missing recent days (e.g. the job hasn't run yet): generate in the background for the next request
+        for (int i = 0; i < BACKFILL_DAYS; i++) {
+            String date = LocalDate.now().minusDays(i).toString();
+            if (!built.dates().contains(date)) precompute(key, date, false);
+        }
+        return built.json();
+    }
 
-        // 3. BUILD RESPONSE
-        List<Map<String, Object>> responseList = new ArrayList<>();
+    // ✅ 1. Scheduled backfill of the last few days for every served region (the request path only reads).
+    // Missing and stale summaries are generated, so a forced refresh that failed is retried here.
+    @Scheduled(cron = "${keepup.catchup.cron:0 15 * * * *}")
+    public void precomputeRecentDays() {
+        for (String region : regions) {
+            for (int i = 0; i < BACKFILL_DAYS; i++) {
+                precompute(region, LocalDate.now().minusDays(i).toString(), false);
+            }
+        }
+    }
+
+    // ✅ 2. New stories for a date make its summaries stale: regenerate them (queued, GENERATION_CONCURRENCY at a time)
+    @EventListener
+    public void onStoriesIngested(StoriesIngestedEvent event) {
+        for (String region : regions) {
+            precompute(region, event.getDate(), true);
+        }
+    }
+
+    // Per-(region, date) single-flight; `force` regenerates even if a summary already exists
+    public CompletableFuture<Void> precompute(String region, String date, boolean force) {
+        String key = region + "|" + date;
+        CompletableFuture<Void> future = inFlight.compute(key, (k, running) -> {
+            if (running == null || running.isDone()) {
+                return CompletableFuture.runAsync(() -> generateSummary(region, date, force), generator);
+            }
+            // A forced refresh must also see stories saved after the running generation read them
+            return force ? running.handle((r, e) -> null).thenRunAsync(() -> generateSummary(region, date, true), generator) : running;
+        });
+        future.whenComplete((r, e) -> inFlight.remove(key, future));
+        return future;
+    }
+
+    // Summaries are keyed by (region, date)
+    static String documentId(String region, String date) {
+        return "summary_" + region + "_" + date;
+    }
+
+    static String normalizeRegion(String region) {
+        String key = region == null ? "" : region.trim().toUpperCase(Locale.ROOT);
+        if (!REGION.matcher(key).matches()) throw new IllegalArgumentException("Invalid region: " + region);
+        return key;
+    }
+
+    // The region's summaries for the last WEEK_DAYS dates (needs the composite index region ASC, date ASC)
+    private Query recentSummaries(String region) {
+        String cutoff = LocalDate.now().minusDays(WEEK_DAYS - 1).toString();
+        return db.collection(COLLECTION).whereEqualTo("region", region).whereGreaterThanOrEqualTo("date", cutoff);
+    }
+
+    // ✅ 3. One listener per region: every change to its recent summaries (from any node) rebuilds the bytes once
+    private RegionSnapshot snapshot(String region) {
+        RegionSnapshot existing = snapshots.get(region);
+        if (existing != null) return existing;
+
+        RegionSnapshot created = new RegionSnapshot();
+        existing = snapshots.putIfAbsent(region, created);
+        if (existing != null) return existing;
 
+        listen(region, created);
+        return created;
+    }
+
+    // ✅ 4. At midnight, move every region's window forward; days that fell out of it drop from the response
+    @Scheduled(cron = "0 0 0 * * *")
+    public void listenToRecentDays() {
+        snapshots.forEach(this::listen);
+    }
+
+    private void listen(String region, RegionSnapshot target) {
+        ListenerRegistration previous = target.listener;
+
+        target.listener = recentSummaries(region).addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                // Drop it so the next request starts a fresh listener
+                System.err.println("❌ daily_catchup listener error (" + region + "): " + error.getMessage());
+                snapshots.remove(region, target);
+                if (target.listener != null) target.listener.remove();
+                target.ready.completeExceptionally(error);
+                return;
+            }
+            if (snapshot == null) return;
+
+            target.built = build(snapshot.getDocuments());
+            target.ready.complete(null);
+            System.out.println("📰 Catch-up snapshot for " + region + ": " + target.built.dates().size() + " days, "
+                    + target.built.json().length + " bytes");
+        });
+        if (previous != null) previous.remove();
+    }
+
+    private static boolean awaitFirstSnapshot(RegionSnapshot snapshot) throws InterruptedException {
+        try {
+            snapshot.ready.get(FIRST_SNAPSHOT_WAIT_SECONDS, TimeUnit.SECONDS);
+            return true;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+
+    // ✅ 5. Parse each day's summary once and serialize the newest 7 days as the response body
+    private Built build(List<QueryDocumentSnapshot> docs) {
+        // date -> newest doc (a legacy `summary_<date>` doc can share a date with its regional replacement)
+        Map<String, QueryDocumentSnapshot> byDate = new HashMap<>();
         for (QueryDocumentSnapshot doc : docs) {
-            Map<String, Object> dayMap = new HashMap<>();
-            dayMap.put("date", doc.getString("date"));
+            String date = doc.getString("date");
+            if (date == null) continue;
+            byDate.merge(date, doc, (a, b) -> createdAt(b) > createdAt(a) ? b : a);
+        }
+
+        List<String> dates = new ArrayList<>(byDate.keySet());
+        dates.sort(Comparator.reverseOrder());
+        if (dates.size() > WEEK_DAYS) dates = dates.subList(0, WEEK_DAYS);
 
+        List<Map<String, Object>> responseList = new ArrayList<>();
+        Set<String> current = new HashSet<>();
+        for (String date : dates) {
+            QueryDocumentSnapshot doc = byDate.get(date);
             String jsonContent = doc.getString("jsonContent");
             // Only add if content is valid
-            if (jsonContent != null && !jsonContent.equals("[]")) {
-                Object summaryObj = objectMapper.readValue(jsonContent, List.class);
-                dayMap.put("summary", summaryObj);
-                responseList.add(dayMap);
-            }
+            if (jsonContent == null || jsonContent.equals("[]")) continue;
+            List<JsonNode> summary = llmJsonParser.parseArray(jsonContent, LlmJsonParser.CATCHUP_ITEM).getItems();
+            if (summary.isEmpty()) continue;
+            if (!isStale(doc)) current.add(date);
+
+            Map<String, Object> dayMap = new LinkedHashMap<>();
+            dayMap.put("date", date);
+            dayMap.put("summary", summary);
+            responseList.add(dayMap);
+        }
+
+        try {
+            return new Built(llmJsonParser.mapper().writeValueAsBytes(responseList), Set.copyOf(current));
+        } catch (Exception e) {
+            System.err.println("❌ Could not serialize catch-up: " + e.getMessage());
+            return new Built(EMPTY_RESPONSE, Set.copyOf(current));
         }
-        return responseList;
     }
 
-    private void ensureSummaryExistsForDate(String date, String region) throws ExecutionException, InterruptedException {
-        String docId = "summary_" + date;
+    private static long createdAt(QueryDocumentSnapshot doc) {
+        Long createdAt = doc.getLong("createdAt");
+        return createdAt != null ? createdAt : 0;
+    }
 
-        // Check if summary already exists
-        if (db.collection("daily_catchup").document(docId).get().get().exists()) {
-            return;
-        }
+    private static boolean isStale(DocumentSnapshot doc) {
+        return Boolean.TRUE.equals(doc.getBoolean("stale"));
+    }
 
-        System.out.println("⚡ Generating Summary for: " + date);
+    private void generateSummary(String region, String date, boolean force) {
+        try {
+            String docId = documentId(region, date);
 
-        // ✅ 1. STRICT FETCH: Only get news that matches this 'date' exactly
-        // (Make sure your NewsIndexingService.getAllNewsSegments accepts a date param!)
-        List<Toon> dailyNews = newsIndexingService.getAllNewsSegments(date);
+            // Check if a current summary already exists
+            DocumentSnapshot existing = db.collection(COLLECTION).document(docId).get().get();
+            if (!force && existing.exists() && !isStale(existing)) {
+                return;
+            }
+            // Flag it first: if this run fails, the hourly backfill sees `stale` and tries again.
+            // A successful save below replaces the whole doc, which clears the flag.
+            if (force && existing.exists() && !isStale(existing)) {
+                db.collection(COLLECTION).document(docId).set(Map.of("stale", true), SetOptions.merge()).get();
+            }
 
-        if (dailyNews.isEmpty()) {
-            System.out.println("⚠️ No news found for " + date + ". Cannot generate summary.");
-            return;
-        }
+            System.out.println("⚡ Generating " + region + " Summary for: " + date);
 
-        // 2. Build Context for the AI
-        StringBuilder contextBuilder = new StringBuilder();
-        contextBuilder.append("EVENTS FOR DATE: ").append(date).append("\n");
-        contextBuilder.append("INSTRUCTIONS: Summarize ONLY these specific events.\n");
+            // 1. STRICT FETCH: Only get news that matches this 'date' exactly
+            List<Toon> dailyNews = newsIndexingService.getAllNewsSegments(date);
 
-        for (Toon t : dailyNews) {
-            contextBuilder.append(String.format("- %s: %s\n", t.getTitle(), t.getDescription()));
-        }
+            if (dailyNews.isEmpty()) {
+                System.out.println("⚠️ No news found for " + date + ". Cannot generate summary.");
+                return;
+            }
 
-        // 3. Generate Summary
-        String generatedJson = vertexAiService.generateCatchUpContent(contextBuilder.toString());
+            // 2. Build Context for the AI
+            StringBuilder contextBuilder = new StringBuilder();
+            contextBuilder.append("EVENTS FOR DATE: ").append(date).append("\n");
+            contextBuilder.append("REGION: ").append(region).append("\n");
+            contextBuilder.append("INSTRUCTIONS: Summarize ONLY these specific events.\n");
 
-        // 4. Save to Database
-        if (generatedJson != null && generatedJson.length() > 10) {
-            Map<String, Object> data = new HashMap<>();
-            data.put("date", date);
-            data.put("region", region);
-            data.put("jsonContent", generatedJson);
-            data.put("createdAt", System.currentTimeMillis());
+            // Most recent first (Firestore returns them in no particular order, and the packer treats order as rank),
+            // bounded so a busy day can't blow up the prompt
+            List<Toon> newestFirst = new ArrayList<>(dailyNews);
+            newestFirst.sort(Comparator.comparingLong(Toon::getTimestamp).reversed());
+            ContextPacker.Packed packed = contextPacker.pack(newestFirst, CONTEXT_BUDGET_TOKENS);
+            contextBuilder.append(packed.text()).append("\n");
+            System.out.println("📦 Catch-up context for " + date + ": " + packed.included().size() + "/" + dailyNews.size()
+                    + " stories, " + packed.usedTokens() + "/" + packed.budgetTokens() + " tokens ("
+                    + packed.redundant() + " redundant, " + packed.truncated() + " truncated, " + packed.dropped() + " dropped)");
 
-            db.collection("daily_catchup").document(docId).set(data);
-            System.out.println("💾 Saved summary for " + date);
-        }
+            // 3. Generate Summary (keep only the recap items that pass validation)
+            LlmJsonParser.Result<JsonNode> parsed = llmJsonParser.parseArray(
+                    vertexAiService.generateCatchUpContent(contextBuilder.toString()), LlmJsonParser.CATCHUP_ITEM);
+            parsed.getRejected().forEach(r -> System.err.println("⚠️ Rejected recap item " + r));
 
+            // 4. Save to Database (the region's listener rebuilds its response)
+            if (!parsed.getItems().isEmpty()) {
+                Map<String, Object> data = new HashMap<>();
+                data.put("date", date);
+                data.put("region", region);
+                data.put("jsonContent", llmJsonParser.toJson(parsed.getItems()));
+                data.put("createdAt", System.currentTimeMillis());
+
+                db.collection(COLLECTION).document(docId).set(data).get();
+                System.out.println("💾 Saved " + region + " summary for " + date);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("❌ Catch-up generation failed for " + region + " " + date + ": " + e.getMessage());
+        }
     }
-}
\ No newline at end of file
+}
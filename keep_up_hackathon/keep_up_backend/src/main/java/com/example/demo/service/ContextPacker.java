@@ -0,0 +1,123 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Toon;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Fits stories into a prompt under a token budget.
+ * Candidates are scored by their relevance rank (the order the caller passes them in) and recency,
+ * near-identical stories are dropped, and the last story that doesn't fit whole is cut at a word
+ * boundary. Token counts are a local estimate, so no tokenizer call is needed.
+ */
+@Component
+public class ContextPacker {
+
+    private static final double RELEVANCE_WEIGHT = 0.7;
+    private static final double RECENCY_WEIGHT = 0.3;
+    private static final double RECENCY_HALF_LIFE_DAYS = 1.0;
+    // Stories sharing this much vocabulary add nothing for the model
+    private static final double REDUNDANT_JACCARD = 0.6;
+    // Below this, a truncated story is more noise than context
+    private static final int MIN_ITEM_TOKENS = 24;
+
+    public record Packed(List<String> lines, List<Toon> included, int usedTokens, int budgetTokens,
+                         int redundant, int truncated, int dropped) {
+        public String text() {
+            return String.join("\n", lines);
+        }
+    }
+
+    private record Candidate(Toon toon, double score, Set<String> terms) {}
+
+    // Rough token count for Gemini-style tokenizers: ~4 chars per token, but never under ~0.75 words per token
+    public static int estimateTokens(String text) {
+        if (text == null || text.isEmpty()) return 0;
+        int words = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            boolean letter = !Character.isWhitespace(text.charAt(i));
+            if (letter && !inWord) words++;
+            inWord = letter;
+        }
+        return Math.max((text.length() + 3) / 4, (words * 4 + 2) / 3);
+    }
+
+    // ✅ 1. Score, de-duplicate and fill the budget; `ranked` is most relevant first
+    public Packed pack(List<Toon> ranked, int budgetTokens) {
+        long now = System.currentTimeMillis();
+        List<Candidate> candidates = new ArrayList<>(ranked.size());
+        for (int rank = 0; rank < ranked.size(); rank++) {
+            Toon toon = ranked.get(rank);
+            double relevance = 1.0 / (1 + rank);
+            double ageDays = toon.getTimestamp() > 0 ? Math.max(0, now - toon.getTimestamp()) / 86_400_000.0 : 7;
+            double recency = Math.pow(0.5, ageDays / RECENCY_HALF_LIFE_DAYS);
+            Set<String> terms = new HashSet<>(TextAnalyzer.analyzeStems(toon.getTitle() + " " + toon.getDescription()));
+            candidates.add(new Candidate(toon, RELEVANCE_WEIGHT * relevance + RECENCY_WEIGHT * recency, terms));
+        }
+        candidates.sort(Comparator.comparingDouble(Candidate::score).reversed());
+
+        List<String> lines = new ArrayList<>();
+        List<Toon> included = new ArrayList<>();
+        List<Set<String>> includedTerms = new ArrayList<>();
+        int used = 0, redundant = 0, truncated = 0, dropped = 0;
+
+        for (Candidate candidate : candidates) {
+            if (isRedundant(candidate.terms(), includedTerms)) {
+                redundant++;
+                continue;
+            }
+
+            String line = line(candidate.toon(), candidate.toon().getDescription());
+            int cost = estimateTokens(line) + 1; // + newline
+            int remaining = budgetTokens - used;
+            if (cost > remaining) {
+                // ✅ 2. Cut the description to whatever room is left, if that's still worth sending
+                if (remaining < MIN_ITEM_TOKENS || (line = truncate(candidate.toon(), remaining - 1)) == null) {
+                    dropped++;
+                    continue;
+                }
+                cost = estimateTokens(line) + 1;
+                truncated++;
+            }
+
+            lines.add(line);
+            included.add(candidate.toon());
+            includedTerms.add(candidate.terms());
+            used += cost;
+        }
+        return new Packed(lines, included, used, budgetTokens, redundant, truncated, dropped);
+    }
+
+    private static String line(Toon toon, String description) {
+        return "- " + toon.getTitle() + ": " + (description != null ? description : "");
+    }
+
+    // Longest word-boundary prefix of the description that fits, or null if not even the title fits
+    private static String truncate(Toon toon, int maxTokens) {
+        String description = toon.getDescription() != null ? toon.getDescription() : "";
+        String[] words = description.split("\\s+");
+        int lo = 0, hi = words.length;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) / 2;
+            if (estimateTokens(line(toon, String.join(" ", Arrays.copyOf(words, mid)) + "…")) <= maxTokens) lo = mid;
+            else hi = mid - 1;
+        }
+        if (lo == 0) return estimateTokens(line(toon, "")) <= maxTokens ? line(toon, "") : null;
+        return line(toon, String.join(" ", Arrays.copyOf(words, lo)) + "…");
+    }
+
+    private static boolean isRedundant(Set<String> terms, List<Set<String>> includedTerms) {
+        if (terms.isEmpty()) return false;
+        for (Set<String> other : includedTerms) {
+            int shared = 0;
+            for (String term : terms) {
+                if (other.contains(term)) shared++;
+            }
+            int union = terms.size() + other.size() - shared;
+            if (union > 0 && (double) shared / union >= REDUNDANT_JACCARD) return true;
+        }
+        return false;
+    }
+}
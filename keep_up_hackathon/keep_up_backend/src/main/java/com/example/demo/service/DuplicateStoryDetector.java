@@ -0,0 +1,167 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Toon;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+
+/**
+ * Near-duplicate detection for ingestion using 64-bit SimHash over title + description + keywords.
+ * Fingerprints are kept for a sliding window of days and bucketed by 8-bit bands, so a lookup only
+ * compares against stories that share at least one band (any fingerprint within 7 bits shares one).
+ */
+@Component
+public class DuplicateStoryDetector {
+
+    static final int MAX_HAMMING_DISTANCE = 7;
+    private static final int WINDOW_DAYS = 3;
+    static final int BANDS = MAX_HAMMING_DISTANCE + 1; // 8 bands of 8 bits
+    private static final int BAND_BITS = 64 / BANDS;
+
+    private record Fingerprint(String toonId, long hash, LocalDate date) {}
+
+    // band index -> band value -> fingerprints
+    private final List<Map<Integer, List<Fingerprint>>> bands = new ArrayList<>();
+    private final Map<String, Fingerprint> byId = new HashMap<>();
+
+    private final Counter uniqueStories;
+    private final Counter duplicateStories;
+
+    public DuplicateStoryDetector(MeterRegistry meterRegistry) {
+        for (int i = 0; i < BANDS; i++) bands.add(new HashMap<>());
+        this.uniqueStories = meterRegistry.counter("keepup.ingest.dedup", "outcome", "unique");
+        this.duplicateStories = meterRegistry.counter("keepup.ingest.dedup", "outcome", "duplicate");
+        meterRegistry.gauge("keepup.ingest.dedup.rate", this, DuplicateStoryDetector::duplicateRate);
+        meterRegistry.gauge("keepup.ingest.dedup.fingerprints", byId, Map::size);
+    }
+
+    // ✅ 1. Ingestion check: the id of an existing near-identical story in the window, if any
+    public synchronized Optional<String> findDuplicate(Toon toon) {
+        LocalDate date = parseDate(toon.getPublishedDate());
+        long hash = simHash(toon);
+
+        Set<Fingerprint> candidates = new HashSet<>();
+        for (int band = 0; band < BANDS; band++) {
+            List<Fingerprint> bucket = bands.get(band).get(bandValue(hash, band));
+            if (bucket != null) candidates.addAll(bucket);
+        }
+
+        Optional<String> match = candidates.stream()
+                .filter(f -> date == null || f.date() == null || Math.abs(f.date().toEpochDay() - date.toEpochDay()) < WINDOW_DAYS)
+                .filter(f -> Long.bitCount(f.hash() ^ hash) <= MAX_HAMMING_DISTANCE)
+                .min(Comparator.comparingInt(f -> Long.bitCount(f.hash() ^ hash)))
+                .map(Fingerprint::toonId);
+
+        if (match.isPresent()) duplicateStories.increment();
+        else uniqueStories.increment();
+        return match;
+    }
+
+    // ✅ 2. Remember a stored story (called for saved stories and for the listener's history)
+    public synchronized void record(Toon toon) {
+        LocalDate date = parseDate(toon.getPublishedDate());
+        if (date != null && date.isBefore(LocalDate.now().minusDays(WINDOW_DAYS + 1L))) return;
+
+        forgetInternal(toon.getId());
+        Fingerprint fingerprint = new Fingerprint(toon.getId(), simHash(toon), date);
+        byId.put(toon.getId(), fingerprint);
+        for (int band = 0; band < BANDS; band++) {
+            bands.get(band).computeIfAbsent(bandValue(fingerprint.hash(), band), k -> new ArrayList<>()).add(fingerprint);
+        }
+    }
+
+    public synchronized void forget(String toonId) {
+        forgetInternal(toonId);
+    }
+
+    // ✅ 3. Slide the window: drop fingerprints older than WINDOW_DAYS
+    public synchronized void evictExpired() {
+        LocalDate cutoff = LocalDate.now().minusDays(WINDOW_DAYS + 1L);
+        List<String> expired = byId.values().stream()
+                .filter(f -> f.date() != null && f.date().isBefore(cutoff))
+                .map(Fingerprint::toonId)
+                .toList();
+        expired.forEach(this::forgetInternal);
+    }
+
+    public double duplicateRate() {
+        double total = uniqueStories.count() + duplicateStories.count();
+        return total == 0 ? 0 : duplicateStories.count() / total;
+    }
+
+    private void forgetInternal(String toonId) {
+        Fingerprint old = byId.remove(toonId);
+        if (old == null) return;
+        for (int band = 0; band < BANDS; band++) {
+            Map<Integer, List<Fingerprint>> buckets = bands.get(band);
+            int key = bandValue(old.hash(), band);
+            List<Fingerprint> bucket = buckets.get(key);
+            if (bucket == null) continue;
+            bucket.remove(old);
+            if (bucket.isEmpty()) buckets.remove(key);
+        }
+    }
+
+    // Word unigrams + bigrams, weighted so the headline counts twice
+    static long simHash(Toon toon) {
+        int[] weights = new int[64];
+        addShingles(weights, toon.getTitle(), 2);
+        addShingles(weights, toon.getDescription(), 1);
+        if (toon.getKeywords() != null) {
+            for (String keyword : toon.getKeywords()) addShingles(weights, keyword, 1);
+        }
+
+        long hash = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) hash |= 1L << bit;
+        }
+        return hash;
+    }
+
+    private static void addShingles(int[] weights, String text, int weight) {
+        List<String> terms = TextAnalyzer.analyze(text);
+        for (int i = 0; i < terms.size(); i++) {
+            addFeature(weights, terms.get(i), weight);
+            if (i + 1 < terms.size()) addFeature(weights, terms.get(i) + " " + terms.get(i + 1), weight);
+        }
+    }
+
+    private static void addFeature(int[] weights, String feature, int weight) {
+        long h = hash64(feature);
+        for (int bit = 0; bit < 64; bit++) {
+            weights[bit] += ((h >>> bit) & 1) == 1 ? weight : -weight;
+        }
+    }
+
+    // FNV-1a followed by a 64-bit finaliser for good bit dispersion
+    private static long hash64(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    static int bandValue(long hash, int band) {
+        return (int) ((hash >>> (band * BAND_BITS)) & ((1L << BAND_BITS) - 1));
+    }
+
+    private static LocalDate parseDate(String date) {
+        if (date == null || date.isEmpty()) return null;
+        try {
+            return LocalDate.parse(date);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
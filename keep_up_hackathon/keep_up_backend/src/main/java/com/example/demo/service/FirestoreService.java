@@ -1,6 +1,7 @@
 package com.example.demo.service;
 
 import com.example.demo.model.Toon;
+import com.example.demo.model.WriteReport;
 import com.google.cloud.firestore.Firestore;
 import org.springframework.stereotype.Service;
 
@@ -11,22 +12,24 @@ import java.util.concurrent.ExecutionException;
 public class FirestoreService {
 
     private final Firestore db;
+    private final BatchWriteService batchWriteService;
 
-    public FirestoreService(Firestore db) {
+    public FirestoreService(Firestore db, BatchWriteService batchWriteService) {
         this.db = db;
+        this.batchWriteService = batchWriteService;
     }
 
-    // METHOD 1: Save a single news segment (Fixes your error!)
-    public void saveToonSegment(Toon segment) {
-        try {
-            // NOTE: Using "toon_index" to match your database screenshot
-            db.collection("toon_index")
-                    .document(segment.getId())
-                    .set(segment);
+    // METHOD 1: Save a single news segment (awaited, retried and acknowledged)
+    public WriteReport saveToonSegment(Toon segment) {
+        // NOTE: Using "toon_index" to match your database screenshot
+        WriteReport report = batchWriteService.write("segment " + segment.getId(), List.of(
+                new BatchWriteService.PendingWrite("toon_index", segment.getId(), segment)));
+        if (report.isComplete()) {
             System.out.println("Saved segment: " + segment.getId());
-        } catch (Exception e) {
-            System.err.println("Error saving to Firestore: " + e.getMessage());
+        } else {
+            System.err.println("Error saving to Firestore: " + report.getItems().get(0).getError());
         }
+        return report;
     }
 
     // METHOD 2: Get all segments (For the Chatbot)
@@ -0,0 +1,360 @@
+package com.example.demo.service;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Approximate nearest-neighbour index (HNSW) over unit-length float vectors, scored by dot product.
+ * Vectors live in one packed float[] and graph links in fixed-size int[] rows, so memory is a few
+ * primitive arrays rather than an object per vector. Removing or re-adding an id tombstones the
+ * old node; once tombstones pass COMPACT_FRACTION of the graph it is rebuilt from the live nodes.
+ */
+public class HnswIndex {
+
+    private static final int M = 16;               // Links per node on upper levels
+    private static final int M0 = 2 * M;           // Links per node on level 0
+    private static final int EF_CONSTRUCTION = 100;
+    private static final int EF_SEARCH = 64;
+    private static final double LEVEL_MULT = 1 / Math.log(M);
+    private static final double COMPACT_FRACTION = 0.2;
+    private static final int COMPACT_MIN_DELETED = 32; // Small graphs aren't worth rebuilding
+
+    public record Match(String id, float score) {}
+
+    private record Candidate(int node, float score) {}
+
+    private final int dimensions;
+    private final Random random = new Random(42); // Deterministic graphs for repeatable results
+
+    private float[] vectors;
+    private String[] ids;
+    private int[] levels;
+    private int[][][] links;                        // links[node][level] = {count, n1, n2, ...}
+    private final BitSet deleted = new BitSet();
+    private final Map<String, Integer> nodeById = new HashMap<>();
+
+    private int size = 0;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public HnswIndex(int dimensions) {
+        this.dimensions = dimensions;
+        int capacity = 64;
+        this.vectors = new float[capacity * dimensions];
+        this.ids = new String[capacity];
+        this.levels = new int[capacity];
+        this.links = new int[capacity][][];
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodeById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String id) {
+        lock.readLock().lock();
+        try {
+            return nodeById.containsKey(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ✅ 1. Insert (vector must already be L2-normalised)
+    public void add(String id, float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions, got " + vector.length);
+        }
+
+        lock.writeLock().lock();
+        try {
+            Integer previous = nodeById.remove(id);
+            if (previous != null) deleted.set(previous);
+            insert(id, vector);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            Integer node = nodeById.remove(id);
+            if (node != null) deleted.set(node);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Number of tombstoned nodes still in the graph
+    public int deletedCount() {
+        lock.readLock().lock();
+        try {
+            return deleted.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ✅ 2. Top-k live ids by similarity, best first
+    public List<Match> search(float[] query, int k) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || k <= 0) return new ArrayList<>();
+
+            int current = entryPoint;
+            for (int l = maxLevel; l > 0; l--) {
+                current = greedyClosest(query, current, l);
+            }
+
+            // Over-fetch so tombstoned nodes don't eat into k (compaction keeps this bounded)
+            int ef = Math.max(EF_SEARCH, k + deleted.cardinality());
+            List<Candidate> found = searchLayer(query, List.of(new Candidate(current, score(query, current))), ef, 0);
+
+            List<Match> matches = new ArrayList<>(k);
+            for (Candidate c : found) {
+                if (deleted.get(c.node())) continue;
+                matches.add(new Match(ids[c.node()], c.score()));
+                if (matches.size() == k) break;
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // --- Graph internals (callers hold the lock) ---
+
+    private void insert(String id, float[] vector) {
+        int node = allocate(id, vector);
+        nodeById.put(id, node);
+
+        int level = (int) (-Math.log(1 - random.nextDouble()) * LEVEL_MULT);
+        levels[node] = level;
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) links[node][l] = new int[maxLinks(l) + 1];
+
+        if (entryPoint < 0) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int current = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            current = greedyClosest(vector, current, l);
+        }
+
+        List<Candidate> entry = List.of(new Candidate(current, score(vector, current)));
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            List<Candidate> found = searchLayer(vector, entry, EF_CONSTRUCTION, l);
+            List<Candidate> chosen = selectNeighbours(found, M);
+            for (Candidate neighbour : chosen) {
+                addLink(node, neighbour.node(), l);
+                addLink(neighbour.node(), node, l);
+            }
+            entry = found;
+        }
+
+        if (level > maxLevel) {
+            entryPoint = node;
+            maxLevel = level;
+        }
+    }
+
+    // Tombstones still route searches but cost ef slots; past the threshold, rebuild from live nodes only
+    private void compactIfNeeded() {
+        int dead = deleted.cardinality();
+        if (dead < COMPACT_MIN_DELETED || dead < size * COMPACT_FRACTION) return;
+
+        List<String> liveIds = new ArrayList<>(nodeById.size());
+        List<float[]> liveVectors = new ArrayList<>(nodeById.size());
+        for (int node = 0; node < size; node++) {
+            if (deleted.get(node)) continue;
+            liveIds.add(ids[node]);
+            liveVectors.add(Arrays.copyOfRange(vectors, node * dimensions, (node + 1) * dimensions));
+        }
+
+        int capacity = Math.max(64, Integer.highestOneBit(Math.max(1, liveIds.size())) * 2);
+        vectors = new float[capacity * dimensions];
+        ids = new String[capacity];
+        levels = new int[capacity];
+        links = new int[capacity][][];
+        deleted.clear();
+        nodeById.clear();
+        size = 0;
+        entryPoint = -1;
+        maxLevel = -1;
+
+        for (int i = 0; i < liveIds.size(); i++) insert(liveIds.get(i), liveVectors.get(i));
+    }
+
+    private int allocate(String id, float[] vector) {
+        if (size == ids.length) {
+            int capacity = ids.length * 2;
+            vectors = Arrays.copyOf(vectors, capacity * dimensions);
+            ids = Arrays.copyOf(ids, capacity);
+            levels = Arrays.copyOf(levels, capacity);
+            links = Arrays.copyOf(links, capacity);
+        }
+        System.arraycopy(vector, 0, vectors, size * dimensions, dimensions);
+        ids[size] = id;
+        return size++;
+    }
+
+    private int greedyClosest(float[] query, int start, int level) {
+        int best = start;
+        float bestScore = score(query, start);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int[] row = linksAt(best, level);
+            for (int i = 1; i <= row[0]; i++) {
+                float s = score(query, row[i]);
+                if (s > bestScore) {
+                    bestScore = s;
+                    best = row[i];
+                    improved = true;
+                }
+            }
+        }
+        return best;
+    }
+
+    // Best-first beam search on one level; returns up to ef candidates, best first
+    private List<Candidate> searchLayer(float[] query, List<Candidate> entry, int ef, int level) {
+        BitSet visited = new BitSet(size);
+        PriorityQueue<Candidate> frontier = new PriorityQueue<>((a, b) -> Float.compare(b.score(), a.score()));
+        PriorityQueue<Candidate> results = new PriorityQueue<>((a, b) -> Float.compare(a.score(), b.score()));
+
+        for (Candidate c : entry) {
+            if (visited.get(c.node())) continue;
+            visited.set(c.node());
+            frontier.add(c);
+            results.add(c);
+            if (results.size() > ef) results.poll();
+        }
+
+        while (!frontier.isEmpty()) {
+            Candidate current = frontier.poll();
+            if (results.size() >= ef && current.score() < results.peek().score()) break;
+
+            int[] row = linksAt(current.node(), level);
+            for (int i = 1; i <= row[0]; i++) {
+                int next = row[i];
+                if (visited.get(next)) continue;
+                visited.set(next);
+
+                float s = score(query, next);
+                if (results.size() < ef || s > results.peek().score()) {
+                    Candidate c = new Candidate(next, s);
+                    frontier.add(c);
+                    results.add(c);
+                    if (results.size() > ef) results.poll();
+                }
+            }
+        }
+
+        List<Candidate> ordered = new ArrayList<>(results);
+        ordered.sort((a, b) -> Float.compare(b.score(), a.score()));
+        return ordered;
+    }
+
+    // HNSW neighbour heuristic: prefer candidates that are closer to the new node than to any
+    // neighbour already chosen, which keeps links pointing in diverse directions
+    private List<Candidate> selectNeighbours(List<Candidate> candidates, int max) {
+        List<Candidate> chosen = new ArrayList<>(max);
+        List<Candidate> skipped = new ArrayList<>();
+        for (Candidate c : candidates) {
+            if (chosen.size() >= max) break;
+            boolean diverse = true;
+            for (Candidate r : chosen) {
+                if (pairScore(c.node(), r.node()) > c.score()) {
+                    diverse = false;
+                    break;
+                }
+            }
+            if (diverse) chosen.add(c);
+            else skipped.add(c);
+        }
+        for (int i = 0; i < skipped.size() && chosen.size() < max; i++) chosen.add(skipped.get(i));
+        return chosen;
+    }
+
+    // Adds a directed link; when the row is full, keeps the closest neighbours only
+    private void addLink(int from, int to, int level) {
+        int[] row = links[from][level];
+        int count = row[0];
+        for (int i = 1; i <= count; i++) {
+            if (row[i] == to) return;
+        }
+        if (count < row.length - 1) {
+            row[count + 1] = to;
+            row[0] = count + 1;
+            return;
+        }
+
+        // Replace the weakest existing link if the new one is closer
+        int weakest = -1;
+        float weakestScore = pairScore(from, to);
+        for (int i = 1; i <= count; i++) {
+            float s = pairScore(from, row[i]);
+            if (s < weakestScore) {
+                weakestScore = s;
+                weakest = i;
+            }
+        }
+        if (weakest > 0) row[weakest] = to;
+    }
+
+    private int[] linksAt(int node, int level) {
+        int[][] rows = links[node];
+        return level < rows.length ? rows[level] : EMPTY_ROW;
+    }
+
+    private static final int[] EMPTY_ROW = {0};
+
+    private static int maxLinks(int level) {
+        return level == 0 ? M0 : M;
+    }
+
+    private float score(float[] query, int node) {
+        int offset = node * dimensions;
+        float dot = 0;
+        for (int i = 0; i < dimensions; i++) dot += query[i] * vectors[offset + i];
+        return dot;
+    }
+
+    private float pairScore(int a, int b) {
+        int offsetA = a * dimensions;
+        int offsetB = b * dimensions;
+        float dot = 0;
+        for (int i = 0; i < dimensions; i++) dot += vectors[offsetA + i] * vectors[offsetB + i];
+        return dot;
+    }
+
+    // Helper for callers producing raw model output
+    public static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) norm += v * v;
+        norm = Math.sqrt(norm);
+        if (norm == 0) return vector.clone();
+
+        float[] unit = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) unit[i] = (float) (vector[i] / norm);
+        return unit;
+    }
+}
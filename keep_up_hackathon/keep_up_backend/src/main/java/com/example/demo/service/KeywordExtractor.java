@@ -0,0 +1,77 @@
+package com.example.demo.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Search keywords for a chat question without a model call.
+ * Question terms are stemmed and weighted by TF-IDF against the stories in NewsSearchIndex, and the
+ * 1-3 best terms that actually occur in the corpus are returned. Gemini is only asked when none of the
+ * question's terms are distinctive in the corpus (e.g. it's phrased with synonyms or an acronym).
+ */
+@Component
+public class KeywordExtractor {
+
+    private static final int MAX_KEYWORDS = 3;
+    // A term found in more than half the stories says little about which one the user means
+    private static final double MIN_IDF = Math.log(2);
+
+    private final NewsSearchIndex searchIndex;
+    private final VertexAiService vertexAiService;
+
+    private final Counter localExtractions;
+    private final Counter modelExtractions;
+
+    public record Keyword(String term, double weight) {}
+
+    public KeywordExtractor(NewsSearchIndex searchIndex, VertexAiService vertexAiService, MeterRegistry meterRegistry) {
+        this.searchIndex = searchIndex;
+        this.vertexAiService = vertexAiService;
+        this.localExtractions = meterRegistry.counter("keepup.chat.keywords", "source", "local");
+        this.modelExtractions = meterRegistry.counter("keepup.chat.keywords", "source", "model");
+    }
+
+    // ✅ 1. Local keywords when confident, otherwise the Gemini extractor
+    public String extract(String question) {
+        List<Keyword> keywords = extractLocal(question);
+        if (!keywords.isEmpty()) {
+            localExtractions.increment();
+            return String.join(" ", keywords.stream().map(Keyword::term).toList());
+        }
+
+        modelExtractions.increment();
+        return vertexAiService.extractSearchKeywords(question);
+    }
+
+    // ✅ 2. TF-IDF over stems; empty means low confidence
+    public List<Keyword> extractLocal(String question) {
+        int n = searchIndex.size();
+        if (n == 0) return List.of();
+
+        // stem -> first surface form and count in the question
+        Map<String, String> surface = new LinkedHashMap<>();
+        Map<String, Integer> termFreqs = new HashMap<>();
+        for (String term : TextAnalyzer.analyze(question)) {
+            String stem = TextAnalyzer.stem(term);
+            surface.putIfAbsent(stem, term);
+            termFreqs.merge(stem, 1, Integer::sum);
+        }
+
+        List<Keyword> scored = new ArrayList<>();
+        for (Map.Entry<String, String> entry : surface.entrySet()) {
+            int df = searchIndex.documentFrequency(entry.getKey());
+            if (df == 0) continue; // Can't retrieve anything locally
+
+            double idf = Math.log((double) n / df);
+            if (idf < MIN_IDF && n > 1) continue;
+            scored.add(new Keyword(entry.getValue(), termFreqs.get(entry.getKey()) * (1 + idf)));
+        }
+
+        // Stable sort keeps question order on equal weights
+        scored.sort(Comparator.comparingDouble(Keyword::weight).reversed());
+        return scored.size() > MAX_KEYWORDS ? scored.subList(0, MAX_KEYWORDS) : scored;
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.demo.service;
+
+import com.example.demo.model.XpChangedEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Top-K leaderboards kept in memory: one global board, one per league and one per cohort.
+ * Each board is a bounded ordered set fed by XpChangedEvent (XP only goes up between rebuilds, so a
+ * user outside the top K can only get in through an event) and holds its response pre-serialized,
+ * re-encoded only when the visible ranking changes. Boards are filled by one UserScanner pass at
+ * startup and rebuilt nightly, which also picks up renames, league moves and deleted users.
+ * Events are local to this node: with several instances, each board only sees the awards made here
+ * and lags the others' until the nightly rebuild reads them back from Firestore. Run a single
+ * instance, or expect boards to be up to a day behind for users served elsewhere.
+ */
+@Component
+public class LeaderboardEngine {
+
+    public static final String DEFAULT_LEAGUE = "Bronze"; // Same default as User
+    private static final String GLOBAL = "global";
+    private static final byte[] EMPTY_BOARD = "[]".getBytes(StandardCharsets.UTF_8);
+
+    private final UserScanner userScanner;
+    private final ObjectMapper mapper;
+    private final int size;      // Entries served
+    private final int capacity;  // Entries kept, so a few removals don't leave a short board
+
+    private volatile Map<String, Board> boards = new ConcurrentHashMap<>();
+    private volatile Map<String, Board> building; // Boards being rebuilt also receive live events
+    private volatile boolean ready = false;
+    private final AtomicBoolean scanning = new AtomicBoolean(false);
+    private final ExecutorService scanner = Executors.newVirtualThreadPerTaskExecutor();
+
+    private record Entry(String userId, String name, long xp) {}
+
+    // Highest XP first; userId breaks ties so the order is stable
+    private static final Comparator<Entry> ORDER = Comparator.comparingLong(Entry::xp).reversed().thenComparing(Entry::userId);
+
+    private final class Board {
+        private final TreeSet<Entry> ranked = new TreeSet<>(ORDER);
+        private final Map<String, Entry> byUser = new HashMap<>();
+        private volatile byte[] json = EMPTY_BOARD;
+
+        synchronized void offer(String userId, String name, long xp) {
+            Entry previous = byUser.get(userId);
+            boolean wasServed = false;
+            if (previous != null) {
+                // XP only grows during a board's life; a late, older value (e.g. from the scan) mustn't lower it
+                xp = Math.max(xp, previous.xp());
+                if (previous.xp() == xp && (name == null || name.equals(previous.name()))) return;
+                wasServed = ORDER.compare(previous, lastServed()) <= 0;
+                ranked.remove(previous);
+            } else if (ranked.size() >= capacity && ORDER.compare(new Entry(userId, name, xp), ranked.last()) > 0) {
+                return; // Doesn't make the board
+            }
+
+            Entry entry = new Entry(userId, name != null ? name : (previous != null ? previous.name() : null), xp);
+            ranked.add(entry);
+            byUser.put(userId, entry);
+            if (ranked.size() > capacity) byUser.remove(ranked.pollLast().userId());
+
+            // Re-encode only if the served slice could have changed
+            if (wasServed || ORDER.compare(entry, lastServed()) <= 0) serialize();
+        }
+
+        synchronized void rename(String userId, String name) {
+            Entry previous = byUser.get(userId);
+            if (previous == null) return;
+            offer(userId, name, previous.xp());
+        }
+
+        private Entry lastServed() {
+            Iterator<Entry> it = ranked.iterator();
+            Entry last = null;
+            for (int i = 0; i < size && it.hasNext(); i++) last = it.next();
+            return last;
+        }
+
+        // ✅ Same shape as before: [{rank, name, xp}]
+        void serialize() {
+            List<Map<String, Object>> leaderboard = new ArrayList<>();
+            int rank = 1;
+            for (Entry entry : ranked) {
+                if (rank > size) break;
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("rank", rank++);
+                row.put("name", entry.name());
+                row.put("xp", entry.xp());
+                leaderboard.add(row);
+            }
+            try {
+                json = mapper.writeValueAsBytes(leaderboard);
+            } catch (Exception e) {
+                System.err.println("❌ Could not serialize leaderboard: " + e.getMessage());
+            }
+        }
+    }
+
+    public LeaderboardEngine(UserScanner userScanner, LlmJsonParser llmJsonParser, MeterRegistry meterRegistry,
+                             @Value("${keepup.leaderboard.size:10}") int size) {
+        this.userScanner = userScanner;
+        this.mapper = llmJsonParser.mapper();
+        this.size = size;
+        this.capacity = size * 2;
+        meterRegistry.gauge("keepup.leaderboard.boards", this, e -> e.boards.size());
+    }
+
+    // ✅ 1. Fill every board in one pass; until then the caller queries Firestore
+    @EventListener(ApplicationReadyEvent.class)
+    public void bootstrap() {
+        scanner.submit(this::rebuild);
+    }
+
+    @Scheduled(cron = "${keepup.leaderboard.rebuild-cron:0 45 3 * * *}")
+    public void rebuild() {
+        if (!scanning.compareAndSet(false, true)) return;
+        long start = System.currentTimeMillis();
+        try {
+            Map<String, Board> fresh = new ConcurrentHashMap<>();
+            building = fresh;
+            long users = userScanner.scan(doc -> {
+                Long xp = doc.getLong("xp");
+                offer(fresh, doc.getId(), doc.getString("name"), doc.getString("league"), doc.getString("cohortId"),
+                        xp != null ? xp : 0);
+            }, "xp", "name", "league", "cohortId");
+
+            boards = fresh;
+            ready = true;
+            System.out.println("🏅 Leaderboards built: " + fresh.size() + " boards from " + users + " users in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("❌ Leaderboard scan failed: " + e.getMessage());
+        } finally {
+            building = null;
+            scanning.set(false);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scanner.shutdownNow();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // ✅ 2. Incremental update from the XP pipeline
+    @EventListener
+    // `building` is read before `boards`: a rebuild publishes `boards` before clearing `building`, so an
+    // event racing the swap still reaches the new boards (offer is idempotent if it lands there twice)
+    public void onXpChanged(XpChangedEvent event) {
+        Map<String, Board> next = building;
+        Map<String, Board> current = boards;
+        offer(current, event.getUserId(), event.getName(), event.getLeague(), event.getCohortId(), event.getXp());
+        if (next != null && next != current) {
+            offer(next, event.getUserId(), event.getName(), event.getLeague(), event.getCohortId(), event.getXp());
+        }
+    }
+
+    public void rename(String userId, String name) {
+        Map<String, Board> next = building;
+        Map<String, Board> current = boards;
+        current.values().forEach(board -> board.rename(userId, name));
+        if (next != null && next != current) next.values().forEach(board -> board.rename(userId, name));
+    }
+
+    // ✅ 3. Reads: the stored bytes, or "[]" for a league/cohort nobody is in
+    public byte[] globalBoard() {
+        return boardJson(GLOBAL);
+    }
+
+    public byte[] leagueBoard(String league) {
+        return boardJson("league:" + league);
+    }
+
+    public byte[] cohortBoard(String cohortId) {
+        return boardJson("cohort:" + cohortId);
+    }
+
+    private byte[] boardJson(String key) {
+        Board board = boards.get(key);
+        return board != null ? board.json : EMPTY_BOARD;
+    }
+
+    private void offer(Map<String, Board> target, String userId, String name, String league, String cohortId, long xp) {
+        target.computeIfAbsent(GLOBAL, k -> new Board()).offer(userId, name, xp);
+        target.computeIfAbsent("league:" + (league != null ? league : DEFAULT_LEAGUE), k -> new Board()).offer(userId, name, xp);
+        if (cohortId != null) target.computeIfAbsent("cohort:" + cohortId, k -> new Board()).offer(userId, name, xp);
+    }
+}
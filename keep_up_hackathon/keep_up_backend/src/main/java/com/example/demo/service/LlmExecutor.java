@@ -0,0 +1,244 @@
+package com.example.demo.service;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import io.grpc.Status;
+import io.grpc.StatusException;
+import io.grpc.StatusRuntimeException;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientResponseException;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Execution layer for model calls, independent of Spring AI so it can be driven by a stub.
+ * Per operation: a bulkhead (semaphore) caps concurrent calls, identical in-flight requests share
+ * one call (single-flight), each attempt has a timeout, retryable failures back off exponentially
+ * (without holding a permit), and latency-sensitive operations can hedge with a second attempt when
+ * the first is slow. A caller can wait at most maxAttempts × (QUEUE_WAIT + timeout) plus backoff.
+ */
+@Component
+public class LlmExecutor {
+
+    // How long a caller waits for a bulkhead permit before giving up
+    static final Duration QUEUE_WAIT = Duration.ofSeconds(5);
+    static final long BASE_BACKOFF_MS = 500;
+    private static final long MAX_BACKOFF_MS = 8_000;
+    private static final Set<Integer> RETRYABLE_HTTP_STATUSES = Set.of(429, 500, 502, 503, 504);
+
+    // The actual model call
+    public interface Call {
+        String call() throws Exception;
+    }
+
+    /**
+     * @param maxConcurrent bulkhead size for the operation
+     * @param timeout       per attempt
+     * @param maxAttempts   1 = no retry
+     * @param hedgeAfter    start a second attempt when the first hasn't answered by then; null = never
+     */
+    public record Policy(int maxConcurrent, Duration timeout, int maxAttempts, Duration hedgeAfter) {}
+
+    // Bulkhead full, or every attempt failed/timed out
+    public static class LlmUnavailableException extends RuntimeException {
+        public LlmUnavailableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private final Map<String, Semaphore> bulkheads = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Duration queueWait;
+    private final long baseBackoffMs;
+
+    public LlmExecutor() {
+        this(QUEUE_WAIT, BASE_BACKOFF_MS);
+    }
+
+    // Shorter waits for tests
+    LlmExecutor(Duration queueWait, long baseBackoffMs) {
+        this.queueWait = queueWait;
+        this.baseBackoffMs = baseBackoffMs;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // ✅ 1. Single-flight: callers with the same key while a call is running get its result
+    public String execute(String operation, String flightKey, Policy policy, Call call) {
+        String key = operation + ":" + flightKey;
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> leader = inFlight.putIfAbsent(key, mine);
+        if (leader != null) {
+            System.out.println("🔗 Joined in-flight " + operation + " call");
+            return join(leader);
+        }
+
+        try {
+            String result = executeWithRetry(operation, policy, call);
+            mine.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    // Streams hold a permit from the same bulkhead until they terminate
+    public <T> Flux<T> stream(String operation, Policy policy, Supplier<Flux<T>> source) {
+        return Flux.defer(() -> {
+            Semaphore bulkhead = bulkhead(operation, policy);
+            acquire(bulkhead, operation);
+            return source.get().doFinally(signal -> bulkhead.release());
+        });
+    }
+
+    // ✅ 2. Bulkhead + retries with exponential backoff and jitter.
+    // The permit is held per attempt only, so a caller sleeping between retries doesn't block others.
+    private String executeWithRetry(String operation, Policy policy, Call call) {
+        Semaphore bulkhead = bulkhead(operation, policy);
+        for (int attempt = 1; ; attempt++) {
+            long backoff;
+            acquire(bulkhead, operation);
+            try {
+                return attempt(policy, call, bulkhead);
+            } catch (Exception e) {
+                if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+                if (attempt >= policy.maxAttempts() || !isRetryable(e)) {
+                    throw e instanceof RuntimeException re && !(e instanceof CancellationException)
+                            ? re
+                            : new LlmUnavailableException(operation + " failed after " + attempt + " attempt(s)", e);
+                }
+                backoff = backoffMs(attempt);
+                System.err.println("🔁 " + operation + " attempt " + attempt + " failed (" + describe(e) + "), retrying in " + backoff + "ms");
+            } finally {
+                bulkhead.release();
+            }
+            sleep(backoff);
+        }
+    }
+
+    // ✅ 3. One attempt with a deadline; optionally hedged with a second identical call
+    private String attempt(Policy policy, Call call, Semaphore bulkhead) throws Exception {
+        CompletableFuture<String> winner = new CompletableFuture<>();
+        AtomicInteger running = new AtomicInteger(1);
+        List<Future<?>> tasks = new ArrayList<>(2);
+        tasks.add(launch(call, winner, running));
+
+        long deadline = System.nanoTime() + policy.timeout().toNanos();
+        boolean hedgePermit = false;
+        try {
+            if (policy.hedgeAfter() != null && policy.hedgeAfter().compareTo(policy.timeout()) < 0) {
+                try {
+                    return winner.get(policy.hedgeAfter().toMillis(), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException slow) {
+                    // Only hedge with spare capacity, never by queueing behind other callers
+                    if (bulkhead.tryAcquire()) {
+                        hedgePermit = true;
+                        running.incrementAndGet();
+                        tasks.add(launch(call, winner, running));
+                    }
+                }
+            }
+            return winner.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        } finally {
+            tasks.forEach(task -> task.cancel(true)); // The loser (or a timed-out call) is abandoned; metrics tag it cancelled
+            if (hedgePermit) bulkhead.release();
+        }
+    }
+
+    private Future<?> launch(Call call, CompletableFuture<String> winner, AtomicInteger running) {
+        return executor.submit(() -> {
+            try {
+                winner.complete(call.call());
+            } catch (Throwable t) {
+                // With a hedge in flight, the first failure still leaves the other attempt a chance
+                if (running.decrementAndGet() == 0) winner.completeExceptionally(t);
+            }
+        });
+    }
+
+    private Semaphore bulkhead(String operation, Policy policy) {
+        return bulkheads.computeIfAbsent(operation, k -> new Semaphore(policy.maxConcurrent(), true));
+    }
+
+    private void acquire(Semaphore bulkhead, String operation) {
+        try {
+            if (!bulkhead.tryAcquire(queueWait.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new LlmUnavailableException(operation + " is at its concurrency limit", null);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LlmUnavailableException(operation + " interrupted while waiting for capacity", e);
+        }
+    }
+
+    // Timeouts, I/O errors and quota/availability errors are worth another try. Status codes are read
+    // from the gax/gRPC/HTTP exception in the cause chain, never from message text.
+    static boolean isRetryable(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof TimeoutException || t instanceof IOException) return true;
+            if (t instanceof ApiException api) return isRetryable(api.getStatusCode().getCode());
+            if (t instanceof StatusRuntimeException grpc) return isRetryable(grpc.getStatus().getCode());
+            if (t instanceof StatusException grpc) return isRetryable(grpc.getStatus().getCode());
+            if (t instanceof RestClientResponseException http) {
+                return RETRYABLE_HTTP_STATUSES.contains(http.getStatusCode().value());
+            }
+        }
+        return false;
+    }
+
+    private static boolean isRetryable(StatusCode.Code code) {
+        return code == StatusCode.Code.RESOURCE_EXHAUSTED || code == StatusCode.Code.UNAVAILABLE
+                || code == StatusCode.Code.DEADLINE_EXCEEDED;
+    }
+
+    private static boolean isRetryable(Status.Code code) {
+        return code == Status.Code.RESOURCE_EXHAUSTED || code == Status.Code.UNAVAILABLE
+                || code == Status.Code.DEADLINE_EXCEEDED;
+    }
+
+    private long backoffMs(int attempt) {
+        long exponential = Math.min(MAX_BACKOFF_MS, baseBackoffMs << (attempt - 1));
+        return exponential / 2 + ThreadLocalRandom.current().nextLong(exponential / 2 + 1);
+    }
+
+    private static String join(CompletableFuture<String> leader) {
+        try {
+            return leader.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            throw e;
+        }
+    }
+
+    private static String describe(Throwable e) {
+        return e instanceof TimeoutException ? "timeout" : e.getClass().getSimpleName() + ": " + e.getMessage();
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LlmUnavailableException("interrupted during retry backoff", e);
+        }
+    }
+}
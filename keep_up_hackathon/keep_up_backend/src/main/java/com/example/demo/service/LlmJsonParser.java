@@ -0,0 +1,296 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.json.JsonReadFeature;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Shared reader for JSON produced by Gemini.
+ * One pass over the text finds the first JSON container (skipping ``` fences and any prose around it)
+ * and splits it into top-level members; each member is then read with its own streaming JsonParser
+ * and checked against a schema. A broken or truncated member is rejected on its own instead of
+ * throwing away the rest of the generation.
+ */
+@Component
+public class LlmJsonParser {
+
+    // Returns null when the node is valid, otherwise the reason it was rejected
+    public interface Schema {
+        String validate(JsonNode node);
+    }
+
+    public static final Schema TOON = node -> requireText(node, "title", "description", "topic");
+
+    public static final Schema QUIZ_QUESTION = node -> {
+        String missing = requireText(node, "question");
+        if (missing != null) return missing;
+
+        JsonNode options = node.get("options");
+        if (options == null || !options.isArray() || options.size() < 2) return "needs at least 2 options";
+        for (JsonNode option : options) {
+            if (!option.isTextual()) return "options must be strings";
+        }
+
+        JsonNode correct = node.get("correctIndex");
+        if (correct == null || !correct.canConvertToInt()) return "missing field 'correctIndex'";
+        if (correct.asInt() < 0 || correct.asInt() >= options.size()) return "correctIndex out of range";
+        return null;
+    };
+
+    public static final Schema CATCHUP_ITEM = node -> requireText(node, "title", "description");
+
+    private final ObjectMapper mapper = JsonMapper.builder()
+            .enable(JsonReadFeature.ALLOW_JAVA_COMMENTS)
+            .enable(JsonReadFeature.ALLOW_TRAILING_COMMA)
+            .enable(JsonReadFeature.ALLOW_UNESCAPED_CONTROL_CHARS)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .enable(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY)
+            .build();
+
+    // ✅ 1. Fence/prose stripping for callers that just want the JSON text
+    public String extractJsonText(String text) {
+        if (text == null) return "";
+        int open = findContainerStart(text);
+        if (open < 0) return text.trim();
+
+        Split split = split(text, open);
+        return split.closed() ? text.substring(open, split.end() + 1) : text.substring(open).trim();
+    }
+
+    // ✅ 2. Top-level array of items, e.g. Toons or quiz questions
+    public Result<JsonNode> parseArray(String text, Schema schema) {
+        List<JsonNode> items = new ArrayList<>();
+        List<String> rejected = new ArrayList<>();
+
+        int open = text == null ? -1 : findContainerStart(text);
+        if (open < 0 || text.charAt(open) != '[') {
+            return new Result<>(false, items, List.of("no JSON array found"));
+        }
+        collectItems(text, open, "", schema, items, rejected);
+        return new Result<>(true, items, rejected);
+    }
+
+    public <T> Result<T> parseArray(String text, Schema schema, Class<T> type) {
+        Result<JsonNode> nodes = parseArray(text, schema);
+        List<T> items = new ArrayList<>();
+        List<String> rejected = new ArrayList<>(nodes.getRejected());
+
+        for (int i = 0; i < nodes.getItems().size(); i++) {
+            try {
+                items.add(mapper.treeToValue(nodes.getItems().get(i), type));
+            } catch (JsonProcessingException e) {
+                rejected.add("unbindable item: " + e.getOriginalMessage());
+            }
+        }
+        return new Result<>(nodes.isFound(), items, rejected);
+    }
+
+    // ✅ 3. Top-level object of named arrays, e.g. { "Technology": [ ...questions ], ... }
+    public Result<Section> parseSections(String text, Schema itemSchema) {
+        List<Section> sections = new ArrayList<>();
+        List<String> rejected = new ArrayList<>();
+
+        int open = text == null ? -1 : findContainerStart(text);
+        if (open < 0 || text.charAt(open) != '{') {
+            return new Result<>(false, sections, List.of("no JSON object found"));
+        }
+
+        Split split = split(text, open);
+        for (Member member : split.members()) {
+            String raw = member.text();
+            int colon = keyEnd(raw);
+            if (colon < 0) {
+                rejected.add("member " + member.index() + ": unreadable key" + (member.truncated() ? " (truncated)" : ""));
+                continue;
+            }
+
+            String name;
+            try {
+                name = mapper.readValue(raw.substring(0, colon).trim(), String.class);
+            } catch (JsonProcessingException e) {
+                rejected.add("member " + member.index() + ": unreadable key");
+                continue;
+            }
+
+            String value = raw.substring(colon + 1);
+            int arrayOpen = findContainerStart(value);
+            if (arrayOpen < 0 || value.charAt(arrayOpen) != '[') {
+                rejected.add(name + ": not a list");
+                continue;
+            }
+
+            List<JsonNode> items = new ArrayList<>();
+            collectItems(value, arrayOpen, name, itemSchema, items, rejected);
+            if (!items.isEmpty()) sections.add(new Section(name, items));
+        }
+        return new Result<>(true, sections, rejected);
+    }
+
+    public String toJson(Object value) {
+        try {
+            return mapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize value", e);
+        }
+    }
+
+    public ObjectMapper mapper() {
+        return mapper;
+    }
+
+    private void collectItems(String text, int open, String prefix, Schema schema, List<JsonNode> items, List<String> rejected) {
+        for (Member member : split(text, open).members()) {
+            String label = prefix + "[" + member.index() + "]";
+            JsonNode node;
+            try {
+                node = readSingleValue(member.text());
+            } catch (IOException e) {
+                rejected.add(label + ": " + (member.truncated() ? "truncated" : "malformed JSON"));
+                continue;
+            }
+
+            String reason = schema.validate(node);
+            if (reason != null) {
+                rejected.add(label + ": " + reason);
+            } else {
+                items.add(node);
+            }
+        }
+    }
+
+    // Streaming read of exactly one value; trailing tokens mean the member was not a single value
+    private JsonNode readSingleValue(String raw) throws IOException {
+        try (JsonParser parser = mapper.createParser(raw)) {
+            if (parser.nextToken() == null) throw new IOException("empty member");
+            JsonNode node = parser.readValueAsTree();
+            if (parser.nextToken() != null) throw new IOException("trailing content");
+            return node;
+        }
+    }
+
+    // --- Single-pass scanner ---
+
+    private record Member(int index, String text, boolean truncated) {}
+
+    private record Split(List<Member> members, boolean closed, int end) {}
+
+    public record Section(String name, List<JsonNode> items) {}
+
+    // First '{' or '[' that actually starts JSON (so "[1]" or "{note}" in prose is skipped)
+    private static int findContainerStart(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '{' && c != '[') continue;
+
+            int next = i + 1;
+            while (next < text.length() && Character.isWhitespace(text.charAt(next))) next++;
+            if (next >= text.length()) return i; // Truncated right after the bracket
+
+            char n = text.charAt(next);
+            if (c == '{' && (n == '"' || n == '}')) return i;
+            if (c == '[' && (n == '{' || n == '[' || n == '"' || n == ']')) return i;
+        }
+        return -1;
+    }
+
+    // Splits the container opened at `open` into its top-level members, tracking strings and nesting
+    private static Split split(String text, int open) {
+        List<Member> members = new ArrayList<>();
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        int memberStart = open + 1;
+
+        for (int i = open + 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (inString) {
+                if (escaped) escaped = false;
+                else if (c == '\\') escaped = true;
+                else if (c == '"') inString = false;
+                continue;
+            }
+
+            if (c == '"') {
+                inString = true;
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                if (depth == 0) {
+                    addMember(members, text.substring(memberStart, i), false);
+                    return new Split(members, true, i);
+                }
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                addMember(members, text.substring(memberStart, i), false);
+                memberStart = i + 1;
+            }
+        }
+
+        // Output was cut off: whatever is left is a partial member
+        addMember(members, text.substring(memberStart), true);
+        return new Split(members, false, text.length() - 1);
+    }
+
+    private static void addMember(List<Member> members, String raw, boolean truncated) {
+        String trimmed = raw.trim();
+        if (trimmed.isEmpty() || trimmed.startsWith("```")) return; // Trailing comma or fence after a cut-off
+        members.add(new Member(members.size(), trimmed, truncated));
+    }
+
+    // Index of the ':' after a quoted object key, or -1
+    private static int keyEnd(String member) {
+        if (member.isEmpty() || member.charAt(0) != '"') return -1;
+        boolean escaped = false;
+        for (int i = 1; i < member.length(); i++) {
+            char c = member.charAt(i);
+            if (escaped) {
+                escaped = false;
+            } else if (c == '\\') {
+                escaped = true;
+            } else if (c == '"') {
+                int colon = i + 1;
+                while (colon < member.length() && Character.isWhitespace(member.charAt(colon))) colon++;
+                return colon < member.length() && member.charAt(colon) == ':' ? colon : -1;
+            }
+        }
+        return -1;
+    }
+
+    private static String requireText(JsonNode node, String... fields) {
+        if (!node.isObject()) return "not an object";
+        for (String field : fields) {
+            JsonNode value = node.get(field);
+            if (value == null || !value.isTextual() || value.asText().isBlank()) {
+                return "missing field '" + field + "'";
+            }
+        }
+        return null;
+    }
+
+    // Accepted items plus a description of every rejected one
+    public static final class Result<T> {
+        private final boolean found;
+        private final List<T> items;
+        private final List<String> rejected;
+
+        Result(boolean found, List<T> items, List<String> rejected) {
+            this.found = found;
+            this.items = Collections.unmodifiableList(items);
+            this.rejected = Collections.unmodifiableList(rejected);
+        }
+
+        public boolean isFound() { return found; }
+        public List<T> getItems() { return items; }
+        public List<String> getRejected() { return rejected; }
+    }
+}
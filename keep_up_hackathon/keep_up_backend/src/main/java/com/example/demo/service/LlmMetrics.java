@@ -0,0 +1,195 @@
+package com.example.demo.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Per-operation instrumentation of Gemini calls, published through Micrometer:
+ * keepup.llm.call (latency timer tagged with outcome and grounding), keepup.llm.tokens (prompt /
+ * completion tokens from the response usage metadata) and keepup.llm.cost (estimated USD from the
+ * configured prices). Every model attempt is recorded, including retries and hedges. Attempts the
+ * executor abandoned (the losing hedge, a timed-out attempt, a client that went away) are tagged
+ * outcome=cancelled and don't count as errors.
+ */
+@Component
+public class LlmMetrics {
+
+    private final MeterRegistry registry;
+    private final double inputPricePerMillion;
+    private final double outputPricePerMillion;
+    private final double groundingPricePerThousand;
+
+    // Operations seen so far, in first-call order, for the actuator summary
+    private final Set<String> operations = Collections.synchronizedSet(new LinkedHashSet<>());
+
+    public LlmMetrics(MeterRegistry registry,
+                      @Value("${keepup.llm.price.input-per-million:0.30}") double inputPricePerMillion,
+                      @Value("${keepup.llm.price.output-per-million:2.50}") double outputPricePerMillion,
+                      @Value("${keepup.llm.price.grounding-per-thousand:35}") double groundingPricePerThousand) {
+        this.registry = registry;
+        this.inputPricePerMillion = inputPricePerMillion;
+        this.outputPricePerMillion = outputPricePerMillion;
+        this.groundingPricePerThousand = groundingPricePerThousand;
+    }
+
+    // ✅ 1. Blocking call: time it, then record usage from the response metadata
+    public ChatResponse record(String operation, boolean grounded, Supplier<ChatResponse> call) {
+        long start = System.nanoTime();
+        try {
+            ChatResponse response = call.get();
+            timer(operation, "success", grounded).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            recordUsage(operation, grounded, response);
+            return response;
+        } catch (RuntimeException e) {
+            timer(operation, isCancellation(e) ? "cancelled" : "error", grounded).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+    }
+
+    // ✅ 2. Streaming call: time from subscribe to the last chunk; usage comes with the final chunks
+    public Flux<ChatResponse> recordStream(String operation, boolean grounded, Flux<ChatResponse> stream) {
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicReference<ChatResponse> last = new AtomicReference<>();
+            return stream
+                    .doOnNext(response -> {
+                        if (hasUsage(response)) last.set(response);
+                    })
+                    .doOnComplete(() -> {
+                        timer(operation, "success", grounded).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        recordUsage(operation, grounded, last.get());
+                    })
+                    .doOnError(e -> timer(operation, isCancellation(e) ? "cancelled" : "error", grounded)
+                            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS))
+                    .doOnCancel(() -> timer(operation, "cancelled", grounded).record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+        });
+    }
+
+    // ✅ 3. Summary per operation for the /actuator/llm endpoint
+    public Map<String, Object> snapshot() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        List<String> names;
+        synchronized (operations) {
+            names = new ArrayList<>(operations);
+        }
+
+        for (String operation : names) {
+            Collection<Timer> timers = registry.find("keepup.llm.call").tag("operation", operation).timers();
+            long calls = 0, errors = 0, cancelled = 0, grounded = 0;
+            double totalMs = 0, maxMs = 0;
+            for (Timer timer : timers) {
+                calls += timer.count();
+                totalMs += timer.totalTime(TimeUnit.MILLISECONDS);
+                maxMs = Math.max(maxMs, timer.max(TimeUnit.MILLISECONDS));
+                if ("error".equals(timer.getId().getTag("outcome"))) errors += timer.count();
+                if ("cancelled".equals(timer.getId().getTag("outcome"))) cancelled += timer.count();
+                if ("true".equals(timer.getId().getTag("grounded"))) grounded += timer.count();
+            }
+
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("calls", calls);
+            stats.put("errors", errors);
+            stats.put("cancelled", cancelled);
+            // Of the calls that ran to an answer or a failure; abandoned ones say nothing about Gemini
+            long finished = calls - cancelled;
+            stats.put("errorRate", finished == 0 ? 0 : (double) errors / finished);
+            stats.put("groundedCalls", grounded);
+            stats.put("meanMs", calls == 0 ? 0 : totalMs / calls);
+            stats.put("p50Ms", percentileMs(timers, 0.5));
+            stats.put("p95Ms", percentileMs(timers, 0.95));
+            stats.put("maxMs", maxMs);
+            stats.put("promptTokens", (long) counterTotal("keepup.llm.tokens", operation, "prompt"));
+            stats.put("completionTokens", (long) counterTotal("keepup.llm.tokens", operation, "completion"));
+            stats.put("estimatedCostUsd", counterTotal("keepup.llm.cost", operation, null));
+            result.put(operation, stats);
+        }
+        return result;
+    }
+
+    private void recordUsage(String operation, boolean grounded, ChatResponse response) {
+        long promptTokens = 0, completionTokens = 0;
+        if (hasUsage(response)) {
+            Usage usage = response.getMetadata().getUsage();
+            promptTokens = usage.getPromptTokens() != null ? usage.getPromptTokens() : 0;
+            completionTokens = usage.getCompletionTokens() != null ? usage.getCompletionTokens() : 0;
+        }
+        tokens(operation, "prompt").increment(promptTokens);
+        tokens(operation, "completion").increment(completionTokens);
+
+        double cost = promptTokens * inputPricePerMillion / 1_000_000
+                + completionTokens * outputPricePerMillion / 1_000_000
+                + (grounded ? groundingPricePerThousand / 1000 : 0);
+        Counter.builder("keepup.llm.cost")
+                .description("Estimated Gemini spend from token usage and grounding")
+                .baseUnit("usd")
+                .tag("operation", operation)
+                .register(registry)
+                .increment(cost);
+    }
+
+    private Timer timer(String operation, String outcome, boolean grounded) {
+        operations.add(operation);
+        return Timer.builder("keepup.llm.call")
+                .description("Gemini call latency per VertexAiService operation")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .tag("grounded", String.valueOf(grounded))
+                .publishPercentiles(0.5, 0.95)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private Counter tokens(String operation, String type) {
+        return Counter.builder("keepup.llm.tokens")
+                .baseUnit("tokens")
+                .tag("operation", operation)
+                .tag("type", type)
+                .register(registry);
+    }
+
+    private double counterTotal(String name, String operation, String type) {
+        var search = registry.find(name).tag("operation", operation);
+        if (type != null) search = search.tag("type", type);
+        return search.counters().stream().mapToDouble(Counter::count).sum();
+    }
+
+    // Percentile of successful calls, the slower of grounded/ungrounded (errors are often fast and would skew it)
+    private static double percentileMs(Collection<Timer> timers, double percentile) {
+        double worst = 0;
+        for (Timer timer : timers) {
+            if (!"success".equals(timer.getId().getTag("outcome"))) continue;
+            for (ValueAtPercentile value : timer.takeSnapshot().percentileValues()) {
+                if (value.percentile() == percentile) worst = Math.max(worst, value.value(TimeUnit.MILLISECONDS));
+            }
+        }
+        return worst;
+    }
+
+    // Interrupted by the executor's cancel(true), or cancelled outright
+    static boolean isCancellation(Throwable error) {
+        if (Thread.currentThread().isInterrupted()) return true;
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof CancellationException || t instanceof InterruptedException) return true;
+        }
+        return false;
+    }
+
+    private static boolean hasUsage(ChatResponse response) {
+        return response != null && response.getMetadata() != null && response.getMetadata().getUsage() != null
+                && response.getMetadata().getUsage().getTotalTokens() != null
+                && response.getMetadata().getUsage().getTotalTokens() > 0;
+    }
+}
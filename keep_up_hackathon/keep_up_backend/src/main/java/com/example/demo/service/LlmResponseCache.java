@@ -0,0 +1,230 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Response cache for deterministic Gemini calls.
+ * Keys are a SHA-256 of model + temperature + whitespace-normalised prompt. Entries live in a
+ * size-bounded LRU in memory and, when keepup.llm.cache.dir is set, as one JSON file per key so
+ * they survive restarts. Both tiers honour the same TTL; the directory is trimmed back to
+ * max-entries and the TTL at startup and by a periodic sweep.
+ */
+@Component
+public class LlmResponseCache {
+
+    // A .tmp file older than this was left behind by a crash, not by a write in progress
+    private static final long ORPHAN_TMP_MS = 60_000;
+
+    private record Entry(String text, long createdAt, long computeMs) {}
+
+    // Computes the response on a miss (the actual model call)
+    public interface Loader {
+        String load();
+    }
+
+    private final int maxEntries;
+    private final long ttlMs;
+    private final double maxTemperature;
+    private final Path diskDir; // null = memory only
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final LinkedHashMap<String, Entry> memory;
+
+    private final Counter memoryHits;
+    private final Counter diskHits;
+    private final Counter misses;
+    private final Counter savedMs;
+
+    public LlmResponseCache(MeterRegistry meterRegistry,
+                            @Value("${keepup.llm.cache.max-entries:1000}") int maxEntries,
+                            @Value("${keepup.llm.cache.ttl-minutes:360}") long ttlMinutes,
+                            @Value("${keepup.llm.cache.max-temperature:0.2}") double maxTemperature,
+                            @Value("${keepup.llm.cache.dir:}") String diskDir) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = ttlMinutes * 60 * 1000;
+        this.maxTemperature = maxTemperature;
+        this.diskDir = diskDir.isBlank() ? null : Path.of(diskDir);
+        this.memory = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > LlmResponseCache.this.maxEntries;
+            }
+        };
+
+        this.memoryHits = meterRegistry.counter("keepup.llm.cache", "result", "hit", "tier", "memory");
+        this.diskHits = meterRegistry.counter("keepup.llm.cache", "result", "hit", "tier", "disk");
+        this.misses = meterRegistry.counter("keepup.llm.cache", "result", "miss", "tier", "none");
+        this.savedMs = Counter.builder("keepup.llm.cache.saved")
+                .description("Model latency avoided by cache hits")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        meterRegistry.gauge("keepup.llm.cache.hit.ratio", this, LlmResponseCache::hitRatio);
+        meterRegistry.gauge("keepup.llm.cache.entries", memory, m -> size());
+
+        if (this.diskDir != null) prepareDisk();
+    }
+
+    @Scheduled(fixedDelayString = "${keepup.llm.cache.sweep-interval-ms:600000}")
+    public void sweepDisk() {
+        if (diskDir == null) return;
+        try {
+            trimDisk(ORPHAN_TMP_MS);
+        } catch (IOException e) {
+            System.err.println("⚠️ LLM disk cache sweep failed: " + e.getMessage());
+        }
+    }
+
+    // ✅ 1. Only low-temperature calls without live search can be replayed safely
+    public boolean isEligible(Double temperature, Boolean googleSearchRetrieval) {
+        return temperature != null && temperature <= maxTemperature && !Boolean.TRUE.equals(googleSearchRetrieval);
+    }
+
+    public static String keyFor(String model, Double temperature, String prompt) {
+        String normalized = prompt.strip().replaceAll("\\s+", " ");
+        return sha256(model + "|" + temperature + "|" + normalized);
+    }
+
+    // ✅ 2. Memory, then disk, then the model
+    public String get(String key, Loader loader) {
+        Entry entry;
+        synchronized (memory) {
+            entry = memory.get(key);
+        }
+        if (entry != null && isFresh(entry)) {
+            memoryHits.increment();
+            savedMs.increment(entry.computeMs());
+            return entry.text();
+        }
+
+        entry = readDisk(key);
+        if (entry != null) {
+            diskHits.increment();
+            savedMs.increment(entry.computeMs());
+            putMemory(key, entry);
+            return entry.text();
+        }
+
+        misses.increment();
+        long start = System.currentTimeMillis();
+        String text = loader.load();
+        if (text == null || text.isBlank()) return text; // Don't pin an empty answer for the whole TTL
+
+        entry = new Entry(text, System.currentTimeMillis(), System.currentTimeMillis() - start);
+        putMemory(key, entry);
+        writeDisk(key, entry);
+        return text;
+    }
+
+    public double hitRatio() {
+        double hits = memoryHits.count() + diskHits.count();
+        double total = hits + misses.count();
+        return total == 0 ? 0 : hits / total;
+    }
+
+    public int size() {
+        synchronized (memory) {
+            return memory.size();
+        }
+    }
+
+    private boolean isFresh(Entry entry) {
+        return System.currentTimeMillis() - entry.createdAt() < ttlMs;
+    }
+
+    private void putMemory(String key, Entry entry) {
+        synchronized (memory) {
+            memory.put(key, entry);
+        }
+    }
+
+    // --- Disk tier ---
+
+    private Entry readDisk(String key) {
+        if (diskDir == null) return null;
+        Path file = diskDir.resolve(key + ".json");
+        if (!Files.exists(file)) return null;
+        try {
+            Entry entry = mapper.readValue(file.toFile(), Entry.class);
+            if (isFresh(entry)) return entry;
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("⚠️ Unreadable LLM cache file " + file.getFileName() + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    private void writeDisk(String key, Entry entry) {
+        if (diskDir == null) return;
+        try {
+            // Write then rename so a crash never leaves a half-written entry behind
+            Path tmp = Files.createTempFile(diskDir, key, ".tmp");
+            mapper.writeValue(tmp.toFile(), entry);
+            Files.move(tmp, diskDir.resolve(key + ".json"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("⚠️ Could not persist LLM cache entry: " + e.getMessage());
+        }
+    }
+
+    private void prepareDisk() {
+        try {
+            Files.createDirectories(diskDir);
+            int kept = trimDisk(0); // Nothing is being written yet, so every .tmp is an orphan
+            System.out.println("💾 LLM cache on disk: " + kept + " entries in " + diskDir);
+        } catch (IOException e) {
+            System.err.println("⚠️ LLM disk cache unavailable: " + e.getMessage());
+        }
+    }
+
+    // Drops expired files and orphaned temp files, and keeps the directory to the same bound as memory, newest first
+    private int trimDisk(long tmpMinAgeMs) throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(diskDir)) {
+            files = listing.filter(p -> p.toString().endsWith(".json") || p.toString().endsWith(".tmp")).toList();
+        }
+
+        long now = System.currentTimeMillis();
+        List<Path> live = new ArrayList<>();
+        for (Path file : files) {
+            long age = now - lastModified(file);
+            if (file.toString().endsWith(".tmp") ? age >= tmpMinAgeMs : age >= ttlMs) {
+                Files.deleteIfExists(file);
+            } else if (file.toString().endsWith(".json")) {
+                live.add(file);
+            }
+        }
+
+        live.sort(Comparator.comparingLong(LlmResponseCache::lastModified).reversed());
+        for (int i = maxEntries; i < live.size(); i++) Files.deleteIfExists(live.get(i));
+        return Math.min(live.size(), maxEntries);
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.demo.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Offline, deterministic stand-in for a real embedding model (used for local runs and tests).
+ * Feature-hashes analyzed terms and their character trigrams into a fixed-size signed vector,
+ * so texts sharing words or word stems land close together. No network, same output on every JVM.
+ */
+public class LocalHashingEmbeddingModel implements EmbeddingModel {
+
+    public static final int DIMENSIONS = 256;
+    private static final float TRIGRAM_WEIGHT = 0.5f;
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<Embedding> embeddings = new ArrayList<>();
+        List<String> texts = request.getInstructions();
+        for (int i = 0; i < texts.size(); i++) {
+            embeddings.add(new Embedding(embedText(texts.get(i)), i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return embedText(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return DIMENSIONS;
+    }
+
+    public float[] embedText(String text) {
+        float[] vector = new float[DIMENSIONS];
+        for (String term : TextAnalyzer.analyze(text)) {
+            addFeature(vector, term, 1f);
+            String padded = "#" + term + "#";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                addFeature(vector, padded.substring(i, i + 3), TRIGRAM_WEIGHT);
+            }
+        }
+        return HnswIndex.normalize(vector);
+    }
+
+    // Signed feature hashing: one bit of the mixed hash picks the sign to reduce collision bias
+    private static void addFeature(float[] vector, String feature, float weight) {
+        int h = mix(feature.hashCode());
+        int slot = Math.floorMod(h, DIMENSIONS);
+        vector[slot] += (h & 0x4000_0000) == 0 ? weight : -weight;
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
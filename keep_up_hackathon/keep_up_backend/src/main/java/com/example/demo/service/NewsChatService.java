@@ -0,0 +1,118 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Toon;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// /chat flow: keywords (local TF-IDF, Gemini fallback) -> local retrieval -> answer (from the semantic cache when a close question was already answered)
+@Service
+public class NewsChatService {
+
+    private static final long STREAM_TIMEOUT_MS = 120_000;
+    private static final int CONTEXT_BUDGET_TOKENS = 1200;
+
+    private final VertexAiService vertexAiService;
+    private final NewsIndexingService newsIndexingService;
+    private final SemanticAnswerCache answerCache;
+    private final KeywordExtractor keywordExtractor;
+    private final ContextPacker contextPacker;
+
+    // Routing blocks on Gemini/Firestore, so streamed requests do it off the servlet thread
+    private final ExecutorService streamExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private record Routing(List<String> matchStrings, String matchKey) {}
+
+    public NewsChatService(VertexAiService vertexAiService,
+                           NewsIndexingService newsIndexingService,
+                           SemanticAnswerCache answerCache,
+                           KeywordExtractor keywordExtractor,
+                           ContextPacker contextPacker) {
+        this.vertexAiService = vertexAiService;
+        this.newsIndexingService = newsIndexingService;
+        this.answerCache = answerCache;
+        this.keywordExtractor = keywordExtractor;
+        this.contextPacker = contextPacker;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        streamExecutor.shutdownNow();
+    }
+
+    public String answer(String question) {
+        Routing routing = route(question);
+        return answerCache.get(question, routing.matchKey(),
+                () -> vertexAiService.chatWithSmartRouting(question, routing.matchStrings()));
+    }
+
+    // SSE variant: "token" events carry answer chunks as Gemini produces them, then one "done" event
+    public SseEmitter streamAnswer(String question) {
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        streamExecutor.execute(() -> {
+            try {
+                // A close question was already answered: send it in one go
+                Routing routing = route(question);
+                SemanticAnswerCache.Probe probe = answerCache.probe(question, routing.matchKey());
+                if (probe.answer() != null) {
+                    emitter.send(SseEmitter.event().name("token").data(probe.answer()));
+                    emitter.send(SseEmitter.event().name("done").data(""));
+                    emitter.complete();
+                    return;
+                }
+
+                // Stop generating if the client goes away (also covers a disconnect before subscribe)
+                Disposable.Swap subscription = Disposables.swap();
+                emitter.onCompletion(subscription::dispose);
+                emitter.onTimeout(subscription::dispose);
+                emitter.onError(e -> subscription.dispose());
+
+                StringBuilder full = new StringBuilder();
+                subscription.update(vertexAiService.streamChatWithSmartRouting(question, routing.matchStrings())
+                        .subscribe(
+                                chunk -> {
+                                    full.append(chunk);
+                                    send(emitter, "token", chunk);
+                                },
+                                error -> {
+                                    System.err.println("❌ Chat stream failed: " + error.getMessage());
+                                    send(emitter, "error", "Could not finish the answer");
+                                    emitter.complete();
+                                },
+                                () -> {
+                                    probe.store(full.toString());
+                                    send(emitter, "done", "");
+                                    emitter.complete();
+                                }));
+            } catch (Exception e) {
+                System.err.println("❌ Chat stream failed: " + e.getMessage());
+                emitter.completeWithError(e);
+            }
+        });
+        return emitter;
+    }
+
+    // Keyword extraction + local retrieval decide both the context and the cache key
+    private Routing route(String question) {
+        String keywords = keywordExtractor.extract(question);
+        List<Toon> matches = newsIndexingService.findRelevantNews(question, keywords);
+
+        ContextPacker.Packed packed = contextPacker.pack(matches, CONTEXT_BUDGET_TOKENS);
+        return new Routing(packed.lines(), SemanticAnswerCache.matchKey(packed.included().stream().map(Toon::getId).toList()));
+    }
+
+    private static void send(SseEmitter emitter, String event, String data) {
+        try {
+            emitter.send(SseEmitter.event().name(event).data(data));
+        } catch (IOException | IllegalStateException e) {
+            // Client disconnected; onCompletion/onError disposes the subscription
+        }
+    }
+}
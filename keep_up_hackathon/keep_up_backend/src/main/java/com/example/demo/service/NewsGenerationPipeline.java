@@ -0,0 +1,176 @@
+package com.example.demo.service;
+
+import com.example.demo.model.GenerationReport;
+import com.example.demo.model.GenerationReport.StageReport;
+import com.example.demo.model.WriteReport;
+import jakarta.annotation.PreDestroy;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The daily generation run as a small DAG: research first, then formatting, the daily quiz and the
+ * category quizzes in parallel because they only need the researched facts.
+ * Every stage runs on its own virtual thread with its own timeout; a stage whose upstream failed is
+ * skipped, everything else still runs, and the report says what happened to each one.
+ * The timeout only covers a stage's Gemini call: once that returns, its Firestore writes run to
+ * completion outside the deadline and are never interrupted half-way.
+ */
+@Service
+public class NewsGenerationPipeline {
+
+    static final String RESEARCH = "research";
+    static final String TOONS = "toons";
+    static final String DAILY_QUIZ = "dailyQuiz";
+    static final String CATEGORY_QUIZZES = "categoryQuizzes";
+
+    // Body of one stage; `inputs` holds the results of the stages it depends on
+    interface StageBody {
+        Object run(Map<String, Object> inputs) throws Exception;
+    }
+
+    // Persists what the body generated; runs after the deadline check and is never cancelled
+    interface PersistStep {
+        Object run(Object generated) throws Exception;
+    }
+
+    private record Stage(String name, List<String> dependsOn, Duration timeout, StageBody body, PersistStep persist) {
+        Stage(String name, List<String> dependsOn, Duration timeout, StageBody body) {
+            this(name, dependsOn, timeout, body, generated -> generated);
+        }
+    }
+
+    private static final class UpstreamFailed extends Exception {
+        UpstreamFailed(String stage) {
+            super("upstream stage '" + stage + "' did not complete", null, false, false);
+        }
+    }
+
+    private final VertexAiService vertexAiService;
+    private final NewsIndexingService newsIndexingService;
+    private final QuizService quizService;
+
+    // Stage threads mostly block on Gemini and Firestore, so one virtual thread each is enough
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public NewsGenerationPipeline(VertexAiService vertexAiService,
+                                  NewsIndexingService newsIndexingService,
+                                  QuizService quizService) {
+        this.vertexAiService = vertexAiService;
+        this.newsIndexingService = newsIndexingService;
+        this.quizService = quizService;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public GenerationReport run(String region, String targetDate) {
+        List<Stage> stages = List.of(
+                new Stage(RESEARCH, List.of(), Duration.ofSeconds(120),
+                        in -> vertexAiService.researchNews(region, targetDate)),
+                new Stage(TOONS, List.of(RESEARCH), Duration.ofSeconds(90),
+                        in -> vertexAiService.formatToToonJson((String) in.get(RESEARCH)),
+                        json -> newsIndexingService.processAndSave((String) json, targetDate)),
+                new Stage(DAILY_QUIZ, List.of(RESEARCH), Duration.ofSeconds(60),
+                        in -> vertexAiService.generateQuizFromNews((String) in.get(RESEARCH)),
+                        json -> quizService.saveDailyQuiz((String) json)),
+                new Stage(CATEGORY_QUIZZES, List.of(RESEARCH), Duration.ofSeconds(90),
+                        in -> vertexAiService.generateCategoryWiseQuiz((String) in.get(RESEARCH)),
+                        json -> quizService.saveCategoryQuizzes((String) json, targetDate)));
+
+        System.out.println("🚀 Generating news for " + targetDate + " (" + region + ")");
+        GenerationReport report = execute(stages, new GenerationReport(targetDate));
+        System.out.println("🏁 Generation for " + targetDate + " finished in " + report.getElapsedMs() + "ms"
+                + (report.isComplete() ? "" : " (incomplete)"));
+        return report;
+    }
+
+    // ✅ 1. Start every stage at once; each waits for its own dependencies only
+    private GenerationReport execute(List<Stage> stages, GenerationReport report) {
+        long start = System.nanoTime();
+        Map<String, CompletableFuture<Object>> results = new ConcurrentHashMap<>();
+        Map<String, StageReport> stageReports = new ConcurrentHashMap<>();
+
+        for (Stage stage : stages) {
+            for (String dependency : stage.dependsOn()) {
+                if (!results.containsKey(dependency)) {
+                    throw new IllegalStateException("Stage '" + stage.name() + "' depends on unknown or later stage '" + dependency + "'");
+                }
+            }
+            CompletableFuture<Object> result = new CompletableFuture<>();
+            results.put(stage.name(), result);
+            executor.execute(() -> runStage(stage, results, result, stageReports, start));
+        }
+
+        CompletableFuture.allOf(results.values().toArray(CompletableFuture[]::new))
+                .exceptionally(e -> null) // Failures are recorded per stage
+                .join();
+
+        // ✅ 2. Assemble the report in declaration order
+        for (Stage stage : stages) {
+            report.getStages().put(stage.name(), stageReports.get(stage.name()));
+            CompletableFuture<Object> result = results.get(stage.name());
+            if (result.isCompletedExceptionally()) continue;
+            if (result.join() instanceof WriteReport writeReport) report.getWrites().put(stage.name(), writeReport);
+        }
+        report.setElapsedMs(elapsedMs(start));
+        return report;
+    }
+
+    private void runStage(Stage stage, Map<String, CompletableFuture<Object>> results, CompletableFuture<Object> result,
+                          Map<String, StageReport> stageReports, long runStart) {
+        Map<String, Object> inputs = new HashMap<>();
+        for (String dependency : stage.dependsOn()) {
+            try {
+                inputs.put(dependency, results.get(dependency).join());
+            } catch (CompletionException | CancellationException e) {
+                stageReports.put(stage.name(), new StageReport(StageReport.SKIPPED, elapsedMs(runStart), 0,
+                        "upstream stage '" + dependency + "' did not complete"));
+                result.completeExceptionally(new UpstreamFailed(dependency));
+                return;
+            }
+        }
+
+        long startedAt = elapsedMs(runStart);
+        long stageStart = System.nanoTime();
+        Future<Object> work = executor.submit(() -> stage.body().run(inputs));
+        try {
+            Object generated = work.get(stage.timeout().toMillis(), TimeUnit.MILLISECONDS);
+            // Writes start only after the deadline check and run on this thread, so nothing can cancel them mid-commit
+            Object value = stage.persist().run(generated);
+            stageReports.put(stage.name(), new StageReport(StageReport.OK, startedAt, elapsedMs(stageStart), null));
+            System.out.println("✅ Stage " + stage.name() + " done in " + elapsedMs(stageStart) + "ms");
+            result.complete(value);
+        } catch (TimeoutException e) {
+            work.cancel(true);
+            String error = "timed out after " + stage.timeout().toSeconds() + "s";
+            stageReports.put(stage.name(), new StageReport(StageReport.TIMED_OUT, startedAt, elapsedMs(stageStart), error));
+            System.err.println("⏱️ Stage " + stage.name() + " " + error);
+            result.completeExceptionally(e);
+        } catch (ExecutionException e) {
+            fail(stage, e.getCause() != null ? e.getCause() : e, result, stageReports, startedAt, stageStart);
+        } catch (InterruptedException e) {
+            work.cancel(true);
+            Thread.currentThread().interrupt();
+            stageReports.put(stage.name(), new StageReport(StageReport.FAILED, startedAt, elapsedMs(stageStart), "interrupted"));
+            result.completeExceptionally(e);
+        } catch (Exception e) {
+            fail(stage, e, result, stageReports, startedAt, stageStart);
+        }
+    }
+
+    private static void fail(Stage stage, Throwable cause, CompletableFuture<Object> result,
+                             Map<String, StageReport> stageReports, long startedAt, long stageStart) {
+        stageReports.put(stage.name(), new StageReport(StageReport.FAILED, startedAt, elapsedMs(stageStart), cause.getMessage()));
+        System.err.println("❌ Stage " + stage.name() + " failed: " + cause.getMessage());
+        result.completeExceptionally(cause);
+    }
+
+    private static long elapsedMs(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+}
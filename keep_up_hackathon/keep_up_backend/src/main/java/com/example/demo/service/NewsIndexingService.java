@@ -1,17 +1,35 @@
 package com.example.demo.service;
 
+import com.example.demo.model.StoriesIngestedEvent;
 import com.example.demo.model.Toon;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.demo.model.ToonPage;
+import com.example.demo.model.WriteReport;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
 import com.google.cloud.firestore.Query;
 import com.google.cloud.firestore.QueryDocumentSnapshot;
 import com.google.firebase.cloud.FirestoreClient;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
@@ -19,103 +37,358 @@ import java.util.stream.Collectors;
 @Service
 public class NewsIndexingService {
 
-    private final ObjectMapper objectMapper;
+    private final LlmJsonParser llmJsonParser;
+    private final NewsSearchIndex searchIndex;
+    private final BatchWriteService batchWriteService;
+    private final ToonFeedCache feedCache;
+    private final SemanticNewsIndex semanticIndex;
+    private final DuplicateStoryDetector duplicateDetector;
+    private final SemanticAnswerCache answerCache;
+    private final ApplicationEventPublisher eventPublisher;
     private static final String COLLECTION_NAME = "toon_index";
+    private static final int SEARCH_RESULT_LIMIT = 3;
+    private static final int FUSION_CANDIDATES = 10;
+    private static final int RRF_K = 60; // Reciprocal-rank-fusion damping constant
+    private static final int LATEST_FEED_SIZE = 50;
+    public static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 50;
 
-    public NewsIndexingService() {
-        this.objectMapper = new ObjectMapper();
+    // Feed order used by pagination: newest first, document id breaks timestamp ties
+    private static final Comparator<Toon> FEED_ORDER = Comparator.comparingLong(Toon::getTimestamp)
+            .thenComparing(Toon::getId)
+            .reversed();
+
+    private ListenerRegistration toonListener;
+    private volatile boolean listenerReady = false;
+
+    public NewsIndexingService(NewsSearchIndex searchIndex, BatchWriteService batchWriteService, ToonFeedCache feedCache,
+                               LlmJsonParser llmJsonParser, SemanticNewsIndex semanticIndex,
+                               DuplicateStoryDetector duplicateDetector, SemanticAnswerCache answerCache,
+                               ApplicationEventPublisher eventPublisher) {
+        this.llmJsonParser = llmJsonParser;
+        this.eventPublisher = eventPublisher;
+        this.answerCache = answerCache;
+        this.duplicateDetector = duplicateDetector;
+        this.semanticIndex = semanticIndex;
+        this.searchIndex = searchIndex;
+        this.batchWriteService = batchWriteService;
+        this.feedCache = feedCache;
     }
 
-    // ✅ 1. Process and Save (Now accepts optional dateOverride)
-    public void processAndSave(String jsonOutput, String dateOverride) {
-        try {
-            String cleanJson = jsonOutput.replace("```json", "").replace("```", "").trim();
-            List<Toon> newToons = objectMapper.readValue(cleanJson, new TypeReference<List<Toon>>() {});
-
-            Firestore db = FirestoreClient.getFirestore();
-
-            // Logic: Use override if provided, otherwise Today
-            String targetDate;
-            long timestamp;
-
-            if (dateOverride != null && !dateOverride.isEmpty()) {
-                targetDate = dateOverride;
-                // Create a dummy timestamp for that day
-                timestamp = java.sql.Date.valueOf(targetDate).getTime();
-            } else {
-                targetDate = LocalDate.now().toString();
-                timestamp = System.currentTimeMillis();
+    // ✅ 0. One snapshot listener on toon_index keeps every node coherent:
+    // the first snapshot fills the search index with the full history, later ones
+    // apply changes (from any node) to the index and drop the affected feed cache entries
+    @EventListener(ApplicationReadyEvent.class)
+    public void startToonListener() {
+        Firestore db = FirestoreClient.getFirestore();
+        toonListener = db.collection(COLLECTION_NAME).addSnapshotListener((snapshot, error) -> {
+            if (error != null) {
+                System.err.println("❌ toon_index listener error: " + error.getMessage());
+                return;
             }
+            if (snapshot == null) return;
 
-            for (Toon toon : newToons) {
-                if (toon.getId() == null || toon.getId().isEmpty()) {
-                    toon.setId(UUID.randomUUID().toString());
+            List<Toon> upserts = new ArrayList<>();
+            List<Toon> added = new ArrayList<>();
+            List<Toon> modified = new ArrayList<>();
+            for (DocumentChange change : snapshot.getDocumentChanges()) {
+                Toon toon = toToon(change.getDocument());
+                switch (change.getType()) {
+                    case ADDED -> {
+                        upserts.add(toon);
+                        added.add(toon);
+                        duplicateDetector.record(toon);
+                        if (listenerReady) {
+                            feedCache.invalidate(toon.getPublishedDate());
+                            answerCache.invalidate(toon.getPublishedDate());
+                        }
+                    }
+                    case MODIFIED -> {
+                        // The old publishedDate is unknown, so drop every cached list
+                        upserts.add(toon);
+                        modified.add(toon);
+                        duplicateDetector.record(toon);
+                        feedCache.invalidateAll();
+                        answerCache.invalidateAll();
+                    }
+                    case REMOVED -> {
+                        searchIndex.remove(toon.getId());
+                        semanticIndex.removeAsync(toon.getId());
+                        duplicateDetector.forget(toon.getId());
+                        feedCache.invalidateAll();
+                        answerCache.invalidateAll();
+                    }
                 }
+            }
+            searchIndex.addAll(upserts);
+            semanticIndex.loadAsync(added);
+            semanticIndex.upsertAsync(modified);
+
+            if (!listenerReady) {
+                listenerReady = true;
+                System.out.println("📚 Search index ready: " + searchIndex.size() + " stories");
+            }
+        });
+    }
+
+    @PreDestroy
+    public void stopToonListener() {
+        if (toonListener != null) toonListener.remove();
+    }
+
+    // ✅ 1. Process and Save (Now accepts optional dateOverride)
+    // All stories of a run are committed in one batch and acknowledged per item
+    public WriteReport processAndSave(String jsonOutput, String dateOverride) {
+        String label = "toons " + (dateOverride != null && !dateOverride.isEmpty() ? dateOverride : LocalDate.now());
+        LlmJsonParser.Result<Toon> parsed = llmJsonParser.parseArray(jsonOutput, LlmJsonParser.TOON, Toon.class);
+        parsed.getRejected().forEach(r -> System.err.println("⚠️ Rejected Toon " + r));
+        if (parsed.getItems().isEmpty()) {
+            WriteReport failed = WriteReport.failed(label, "No valid stories in model output");
+            failed.setRejected(parsed.getRejected());
+            return failed;
+        }
+        List<Toon> newToons = parsed.getItems();
+
+        // Logic: Use override if provided, otherwise Today
+        String targetDate;
+        long timestamp;
+
+        if (dateOverride != null && !dateOverride.isEmpty()) {
+            targetDate = dateOverride;
+            // Create a dummy timestamp for that day
+            timestamp = java.sql.Date.valueOf(targetDate).getTime();
+        } else {
+            targetDate = LocalDate.now().toString();
+            timestamp = System.currentTimeMillis();
+        }
 
-                // Apply the date
-                toon.setPublishedDate(targetDate);
-                toon.setTimestamp(timestamp);
+        // Near-duplicates: same-day re-runs overwrite the existing story, other days' stories are dropped
+        duplicateDetector.evictExpired();
+        List<Toon> toSave = new ArrayList<>();
+        List<String> duplicates = new ArrayList<>();
+        Set<String> mergedIds = new HashSet<>();
+        List<BatchWriteService.PendingWrite> writes = new ArrayList<>();
+        for (Toon toon : newToons) {
+            // Apply the date
+            toon.setPublishedDate(targetDate);
+            toon.setTimestamp(timestamp);
 
-                db.collection(COLLECTION_NAME).document(toon.getId()).set(toon);
-                System.out.println("✅ Saved Toon: " + toon.getTitle() + " [" + targetDate + "]");
+            Optional<String> existingId = duplicateDetector.findDuplicate(toon);
+            if (existingId.isPresent()) {
+                Toon existing = searchIndex.get(existingId.get());
+                boolean sameDay = existing != null && targetDate.equals(existing.getPublishedDate());
+                if (!sameDay || toSave.stream().anyMatch(t -> t.getId().equals(existingId.get()))) {
+                    duplicates.add("dropped '" + toon.getTitle() + "' (duplicate of " + existingId.get() + ")");
+                    continue;
+                }
+                toon.setId(existingId.get());
+                mergedIds.add(existingId.get());
+                duplicates.add("merged '" + toon.getTitle() + "' into " + existingId.get());
+            } else if (toon.getId() == null || toon.getId().isEmpty()) {
+                toon.setId(UUID.randomUUID().toString());
             }
 
+            duplicateDetector.record(toon); // Catches duplicates within this batch too
+            toSave.add(toon);
+            writes.add(new BatchWriteService.PendingWrite(COLLECTION_NAME, toon.getId(), toon));
+        }
+        duplicates.forEach(d -> System.out.println("♻️ Dedup: " + d));
+
+        WriteReport report = batchWriteService.write(label, writes);
+        report.setRejected(parsed.getRejected());
+        report.setDuplicates(duplicates);
+
+        // Only index what Firestore acknowledged (acks are in write order)
+        List<Toon> saved = new ArrayList<>();
+        for (int i = 0; i < report.getItems().size(); i++) {
+            if (report.getItems().get(i).isOk()) saved.add(toSave.get(i));
+            else if (!mergedIds.contains(toSave.get(i).getId())) duplicateDetector.forget(toSave.get(i).getId());
+        }
+        searchIndex.addAll(saved);
+        feedCache.invalidate(targetDate);
+        answerCache.invalidate(targetDate);
+        try {
+            semanticIndex.indexNew(saved);
         } catch (Exception e) {
-            System.err.println("❌ Error processing news JSON: " + e.getMessage());
-            e.printStackTrace();
+            // Stories are saved; the listener will retry embedding them
+            System.err.println("⚠️ Embedding failed for " + targetDate + ": " + e.getMessage());
         }
+        if (!saved.isEmpty()) eventPublisher.publishEvent(new StoriesIngestedEvent(targetDate, saved.size()));
+
+        System.out.println("✅ Saved " + saved.size() + "/" + newToons.size() + " Toons [" + targetDate + "]");
+        return report;
     }
 
-    // ✅ 2. Fetch News (Supports Date Filtering)
+    // ✅ 2. Fetch News (Supports Date Filtering), served from the feed cache.
+    // A malformed date throws IllegalArgumentException before anything is queried or cached.
     public List<Toon> getAllNewsSegments(String dateFilter) {
+        String key = ToonFeedCache.keyFor(dateFilter);
+        String date = ToonFeedCache.LATEST_KEY.equals(key) ? null : key;
+        try {
+            return feedCache.get(key, () -> queryNewsSegments(date));
+        } catch (Exception e) {
+            System.err.println("❌ Error fetching news: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    private List<Toon> queryNewsSegments(String dateFilter) throws ExecutionException, InterruptedException {
         List<Toon> newsList = new ArrayList<>();
         Firestore db = FirestoreClient.getFirestore();
+        Query query;
 
-        try {
-            Query query;
-
-            if (dateFilter != null && !dateFilter.isEmpty()) {
-                // Filter by specific date
-                System.out.println("🔎 Filtering for date: " + dateFilter);
-                query = db.collection(COLLECTION_NAME).whereEqualTo("publishedDate", dateFilter);
-            } else {
-                // Default: Sort by Newest
-                query = db.collection(COLLECTION_NAME)
-                        .orderBy("timestamp", Query.Direction.DESCENDING)
-                        .limit(50);
+        if (dateFilter != null && !dateFilter.isEmpty()) {
+            // Filter by specific date
+            System.out.println("🔎 Filtering for date: " + dateFilter);
+            query = db.collection(COLLECTION_NAME).whereEqualTo("publishedDate", dateFilter);
+        } else {
+            // Default: Sort by Newest
+            query = db.collection(COLLECTION_NAME)
+                    .orderBy("timestamp", Query.Direction.DESCENDING)
+                    .limit(LATEST_FEED_SIZE);
+        }
+
+        List<QueryDocumentSnapshot> documents = query.get().get().getDocuments();
+
+        for (QueryDocumentSnapshot document : documents) {
+            newsList.add(toToon(document));
+        }
+        return newsList;
+    }
+
+    // ✅ 2b. Cursor pagination: (timestamp, docId) keyset with startAfter, so each page costs at most pageSize reads.
+    // Date pages need a composite index on publishedDate ASC, timestamp DESC, __name__ DESC.
+    public ToonPage getNewsPage(String dateFilter, int pageSize, String pageToken) throws ExecutionException, InterruptedException {
+        int size = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+        String key = ToonFeedCache.keyFor(dateFilter);
+        dateFilter = ToonFeedCache.LATEST_KEY.equals(key) ? null : key;
+        String dateKey = dateFilter != null ? dateFilter : "";
+
+        boolean firstPage = pageToken == null || pageToken.isEmpty();
+        if (firstPage) {
+            // First page: slice the cached list instead of querying. The latest list is small (LATEST_FEED_SIZE)
+            // and loaded through the cache; a date's full list is only used if it's already cached
+            List<Toon> cached = dateKey.isEmpty() ? getAllNewsSegments(null) : feedCache.peek(key);
+            if (cached != null) {
+                cached = new ArrayList<>(cached);
+                cached.sort(FEED_ORDER);
+                List<Toon> items = new ArrayList<>(cached.subList(0, Math.min(size, cached.size())));
+                // A date list is complete; the latest list is capped, so a full one may have more behind it
+                boolean more = cached.size() > size || (dateKey.isEmpty() && cached.size() >= LATEST_FEED_SIZE);
+                String next = more && !items.isEmpty() ? encodePageToken(dateKey, items.get(items.size() - 1)) : null;
+                return new ToonPage(items, next);
             }
+        }
 
-            List<QueryDocumentSnapshot> documents = query.get().get().getDocuments();
+        Firestore db = FirestoreClient.getFirestore();
+        Query query = db.collection(COLLECTION_NAME);
+        if (!dateKey.isEmpty()) query = query.whereEqualTo("publishedDate", dateKey);
+        query = query.orderBy("timestamp", Query.Direction.DESCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING);
 
-            for (QueryDocumentSnapshot document : documents) {
-                Toon toon = document.toObject(Toon.class);
-                toon.setId(document.getId());
-                newsList.add(toon);
+        if (!firstPage) {
+            String[] cursor = decodePageToken(pageToken);
+            if (!cursor[0].equals(dateKey)) {
+                throw new IllegalArgumentException("Page token does not belong to this feed");
             }
-        } catch (InterruptedException | ExecutionException e) {
-            System.err.println("❌ Error fetching news: " + e.getMessage());
+            query = query.startAfter(Long.parseLong(cursor[1]), cursor[2]);
         }
 
-        return newsList;
+        // Fetch one extra row to learn whether another page exists
+        List<QueryDocumentSnapshot> documents = query.limit(size + 1).get().get().getDocuments();
+
+        List<Toon> items = new ArrayList<>();
+        for (int i = 0; i < Math.min(size, documents.size()); i++) {
+            items.add(toToon(documents.get(i)));
+        }
+        String next = documents.size() > size ? encodePageToken(dateKey, items.get(items.size() - 1)) : null;
+        return new ToonPage(items, next);
+    }
+
+    private static String encodePageToken(String dateKey, Toon last) {
+        String raw = dateKey + "|" + last.getTimestamp() + "|" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Returns [dateKey, timestamp, docId]
+    private static String[] decodePageToken(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", 3);
+            if (parts.length != 3) throw new IllegalArgumentException("Malformed page token");
+            Long.parseLong(parts[1]);
+            return parts;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page token", e);
+        }
+    }
+
+    // ✅ 2c. Stories by id, in the order given: from the search index, with one batched getAll for any it lacks.
+    // Ids with no story (e.g. deleted) are left out
+    public List<Toon> getToonsByIds(List<String> ids) throws ExecutionException, InterruptedException {
+        Map<String, Toon> found = new HashMap<>();
+        List<DocumentReference> missing = new ArrayList<>();
+        Firestore db = FirestoreClient.getFirestore();
+        for (String id : ids) {
+            Toon toon = searchIndex.get(id);
+            if (toon != null) found.put(id, toon);
+            else missing.add(db.collection(COLLECTION_NAME).document(id));
+        }
+
+        if (!missing.isEmpty()) {
+            for (DocumentSnapshot document : db.getAll(missing.toArray(new DocumentReference[0])).get()) {
+                if (document.exists()) found.put(document.getId(), toToon(document));
+            }
+        }
+
+        List<Toon> toons = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Toon toon = found.get(id);
+            if (toon != null) toons.add(toon);
+        }
+        return toons;
     }
+
+    // ✅ 3. Ranked keyword search over the in-memory index (no Firestore round trip)
     public List<Toon> searchNewsByKeywords(String keywordString) {
         if (keywordString == null || keywordString.isEmpty()) return new ArrayList<>();
 
-        // 1. Fetch recent news (e.g., last 50 items) to search against
-        List<Toon> recentNews = getAllNewsSegments(null);
+        // Top 3 by BM25 score to save tokens
+        return searchIndex.search(keywordString, SEARCH_RESULT_LIMIT);
+    }
 
-        String[] keywords = keywordString.toLowerCase().split("\\s+"); // Split by spaces
+    // ✅ 4. Chat retrieval: semantic neighbours of the question fused with BM25 keyword hits
+    public List<Toon> findRelevantNews(String question, String keywordString) {
+        Map<String, Double> fused = new HashMap<>();
+        Map<String, Toon> byId = new HashMap<>();
 
-        return recentNews.stream()
-                .filter(toon -> {
-                    String content = (toon.getTitle() + " " + toon.getDescription() + " " + toon.getTopic()).toLowerCase();
-                    // Match IF content contains ANY of the keywords
-                    for (String key : keywords) {
-                        if (content.contains(key)) return true;
-                    }
-                    return false;
-                })
-                .limit(3) // Limit to top 3 matches to save tokens
+        try {
+            addRanked(fused, byId, semanticIndex.search(question, FUSION_CANDIDATES));
+        } catch (Exception e) {
+            System.err.println("⚠️ Semantic search unavailable: " + e.getMessage());
+        }
+        if (keywordString != null && !keywordString.isEmpty()) {
+            addRanked(fused, byId, searchIndex.search(keywordString, FUSION_CANDIDATES));
+        }
+
+        return fused.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().reversed())
+                .limit(SEARCH_RESULT_LIMIT)
+                .map(e -> byId.get(e.getKey()))
                 .collect(Collectors.toList());
     }
-}
\ No newline at end of file
+
+    private static void addRanked(Map<String, Double> fused, Map<String, Toon> byId, List<Toon> ranked) {
+        for (int rank = 0; rank < ranked.size(); rank++) {
+            Toon toon = ranked.get(rank);
+            fused.merge(toon.getId(), 1.0 / (RRF_K + rank + 1), Double::sum);
+            byId.putIfAbsent(toon.getId(), toon);
+        }
+    }
+
+    private static Toon toToon(DocumentSnapshot document) {
+        Toon toon = document.toObject(Toon.class);
+        toon.setId(document.getId());
+        return toon;
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Toon;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over every Toon in toon_index, ranked with BM25.
+ * Terms are stemmed, and title and keywords are weighted higher than description/topic by
+ * repeating their terms.
+ */
+@Component
+public class NewsSearchIndex {
+
+    // Standard BM25 tuning values
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final int TITLE_WEIGHT = 2;
+    private static final int KEYWORD_WEIGHT = 2;
+
+    // term -> (toonId -> term frequency)
+    private final Map<String, Map<String, Integer>> postings = new HashMap<>();
+    // toonId -> distinct terms, so removal only touches the postings it owns
+    private final Map<String, Set<String>> docTerms = new HashMap<>();
+    private final Map<String, Integer> docLengths = new HashMap<>();
+    private final Map<String, Toon> docs = new HashMap<>();
+    private long totalLength = 0;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // ✅ 1. Add or replace stories (re-indexing the same id is safe)
+    public void addAll(Collection<Toon> toons) {
+        lock.writeLock().lock();
+        try {
+            for (Toon toon : toons) {
+                if (toon.getId() == null || toon.getId().isEmpty()) continue;
+                removeInternal(toon.getId());
+                indexInternal(toon);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void add(Toon toon) {
+        addAll(List.of(toon));
+    }
+
+    public void remove(String toonId) {
+        lock.writeLock().lock();
+        try {
+            removeInternal(toonId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // ✅ 2. Ranked search: best `limit` stories for the query, newest first on ties
+    public List<Toon> search(String query, int limit) {
+        List<String> queryTerms = new ArrayList<>(new LinkedHashSet<>(TextAnalyzer.analyzeStems(query)));
+        if (queryTerms.isEmpty() || limit <= 0) return new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            int n = docs.size();
+            if (n == 0) return new ArrayList<>();
+            double avgLength = (double) totalLength / n;
+
+            Map<String, Double> scores = new HashMap<>();
+            for (String term : queryTerms) {
+                Map<String, Integer> posting = postings.get(term);
+                if (posting == null) continue;
+
+                double idf = Math.log(1 + (n - posting.size() + 0.5) / (posting.size() + 0.5));
+                for (Map.Entry<String, Integer> entry : posting.entrySet()) {
+                    int tf = entry.getValue();
+                    int length = docLengths.get(entry.getKey());
+                    double norm = tf + K1 * (1 - B + B * length / avgLength);
+                    scores.merge(entry.getKey(), idf * tf * (K1 + 1) / norm, Double::sum);
+                }
+            }
+
+            Comparator<Map.Entry<String, Double>> byRank = Map.Entry.<String, Double>comparingByValue()
+                    .thenComparingLong(e -> docs.get(e.getKey()).getTimestamp());
+
+            // Min-heap of size `limit` keeps this O(matches * log limit)
+            PriorityQueue<Map.Entry<String, Double>> top = new PriorityQueue<>(byRank);
+            for (Map.Entry<String, Double> entry : scores.entrySet()) {
+                top.offer(entry);
+                if (top.size() > limit) top.poll();
+            }
+
+            List<Toon> results = new ArrayList<>(top.size());
+            while (!top.isEmpty()) results.add(docs.get(top.poll().getKey()));
+            Collections.reverse(results);
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Toon get(String toonId) {
+        lock.readLock().lock();
+        try {
+            return docs.get(toonId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Corpus statistics for query-side weighting: stories containing the stemmed term
+    public int documentFrequency(String stem) {
+        lock.readLock().lock();
+        try {
+            Map<String, Integer> posting = postings.get(stem);
+            return posting == null ? 0 : posting.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void indexInternal(Toon toon) {
+        Map<String, Integer> termFreqs = new HashMap<>();
+        int length = 0;
+
+        length += countTerms(termFreqs, toon.getTitle(), TITLE_WEIGHT);
+        length += countTerms(termFreqs, toon.getDescription(), 1);
+        length += countTerms(termFreqs, toon.getTopic(), 1);
+        if (toon.getKeywords() != null) {
+            for (String keyword : toon.getKeywords()) {
+                length += countTerms(termFreqs, keyword, KEYWORD_WEIGHT);
+            }
+        }
+
+        String id = toon.getId();
+        for (Map.Entry<String, Integer> entry : termFreqs.entrySet()) {
+            postings.computeIfAbsent(entry.getKey(), k -> new HashMap<>()).put(id, entry.getValue());
+        }
+        docs.put(id, toon);
+        docTerms.put(id, termFreqs.keySet());
+        docLengths.put(id, length);
+        totalLength += length;
+    }
+
+    private void removeInternal(String id) {
+        if (docs.remove(id) == null) return;
+
+        totalLength -= docLengths.remove(id);
+        for (String term : docTerms.remove(id)) {
+            Map<String, Integer> posting = postings.get(term);
+            if (posting == null) continue;
+            posting.remove(id);
+            if (posting.isEmpty()) postings.remove(term);
+        }
+    }
+
+    private static int countTerms(Map<String, Integer> termFreqs, String text, int weight) {
+        List<String> terms = TextAnalyzer.analyzeStems(text);
+        for (String term : terms) termFreqs.merge(term, weight, Integer::sum);
+        return terms.size() * weight;
+    }
+}
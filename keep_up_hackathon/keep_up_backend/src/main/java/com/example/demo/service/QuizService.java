@@ -1,68 +1,171 @@
 package com.example.demo.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper; // Standard Spring Boot JSON parser
+import com.example.demo.model.QuizResult;
+import com.example.demo.model.QuizSubmission;
+import com.example.demo.model.WriteReport;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.google.cloud.firestore.Firestore;
 import org.springframework.stereotype.Service;
+import java.time.LocalDate;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 
 @Service
 public class QuizService {
 
+    // The app's quiz id (and XP lock category) for the home-screen quiz
+    public static final String DAILY_QUIZ_ID = "Daily";
+    // Same rate the app has always awarded
+    public static final int XP_PER_CORRECT_ANSWER = 20;
+
     private final Firestore db;
-    private final ObjectMapper objectMapper = new ObjectMapper(); // Logic to parse JSON string to Map
+    private final BatchWriteService batchWriteService;
+    private final LlmJsonParser llmJsonParser; // Salvages valid questions from model output
+    private final QuizStore quizStore; // Serves reads from memory once its listeners are warm
+    private final UserService userService;
 
-    public QuizService(Firestore db) {
+    public QuizService(Firestore db, BatchWriteService batchWriteService, LlmJsonParser llmJsonParser, QuizStore quizStore,
+                       UserService userService) {
         this.db = db;
+        this.batchWriteService = batchWriteService;
+        this.llmJsonParser = llmJsonParser;
+        this.quizStore = quizStore;
+        this.userService = userService;
     }
 
     // --- MAIN DAILY QUIZ (Existing) ---
-    public void saveDailyQuiz(String quizJson) {
-        try {
-            db.collection("daily_quizzes").document("latest_quiz")
-                    .set(Map.of("jsonContent", quizJson));
-        } catch (Exception e) { e.printStackTrace(); }
+    // Only schema-valid questions are stored, re-serialized as clean JSON
+    public WriteReport saveDailyQuiz(String quizJson) {
+        LlmJsonParser.Result<JsonNode> parsed = llmJsonParser.parseArray(quizJson, LlmJsonParser.QUIZ_QUESTION);
+        parsed.getRejected().forEach(r -> System.err.println("⚠️ Rejected daily question " + r));
+        if (parsed.getItems().isEmpty()) {
+            WriteReport failed = WriteReport.failed("daily quiz", "No valid questions in model output");
+            failed.setRejected(parsed.getRejected());
+            return failed;
+        }
+
+        String jsonContent = llmJsonParser.toJson(parsed.getItems());
+        WriteReport report = batchWriteService.write("daily quiz", List.of(
+                new BatchWriteService.PendingWrite("daily_quizzes", "latest_quiz", Map.of("jsonContent", jsonContent))));
+        report.setRejected(parsed.getRejected());
+        if (report.isComplete()) quizStore.putDaily(jsonContent);
+        return report;
     }
 
-    public String getDailyQuiz() throws ExecutionException, InterruptedException {
+    // Firestore is only read until the store is warm; never null
+    public QuizStore.Quiz getDailyQuiz() throws ExecutionException, InterruptedException {
+        if (quizStore.isDailyReady()) return quizStore.getDaily();
+
         var doc = db.collection("daily_quizzes").document("latest_quiz").get().get();
-        return doc.exists() ? doc.getString("jsonContent") : "[]";
+        QuizStore.Quiz quiz = doc.exists() ? quizStore.fromJsonContent(doc.getString("jsonContent")) : null;
+        return quiz != null ? quiz : quizStore.getDaily();
     }
 
     // --- ✅ NEW: CATEGORY QUIZ LOGIC ---
 
-    // 1. SPLIT & SAVE: Takes the big JSON, splits it by category, saves separately
-    public void saveCategoryQuizzes(String jsonResponse, String date) {
-        try {
-            // Convert String JSON -> Java Map
-            Map<String, Object> allQuizzes = objectMapper.readValue(jsonResponse, Map.class);
-
-            // Loop through "Technology", "Sports", etc.
-            for (String category : allQuizzes.keySet()) {
-                String docId = date + "_" + category; // ID: "2026-01-06_Technology"
+    // 1. SPLIT & SAVE: Takes the big JSON, splits it by category, saves all categories in one batch
+    public WriteReport saveCategoryQuizzes(String jsonResponse, String date) {
+        String label = "category quizzes " + date;
+        LlmJsonParser.Result<LlmJsonParser.Section> parsed = llmJsonParser.parseSections(jsonResponse, LlmJsonParser.QUIZ_QUESTION);
+        parsed.getRejected().forEach(r -> System.err.println("⚠️ Rejected category question " + r));
+        if (parsed.getItems().isEmpty()) {
+            WriteReport failed = WriteReport.failed(label, "No valid category quizzes in model output");
+            failed.setRejected(parsed.getRejected());
+            return failed;
+        }
 
-                Map<String, Object> quizData = new HashMap<>();
-                quizData.put("date", date);
-                quizData.put("category", category);
-                quizData.put("questions", allQuizzes.get(category)); // The list of 3 questions
+        // Loop through "Technology", "Sports", etc.
+        List<BatchWriteService.PendingWrite> writes = new ArrayList<>();
+        for (LlmJsonParser.Section section : parsed.getItems()) {
+            String category = section.name();
+            String docId = QuizStore.key(date, category); // ID: "2026-01-06_Technology"
 
-                // Save to new collection
-                db.collection("category_quizzes").document(docId).set(quizData);
-                System.out.println("✅ Saved Quiz for: " + category);
+            List<Map<String, Object>> questions = new ArrayList<>();
+            for (JsonNode question : section.items()) {
+                questions.add(llmJsonParser.mapper().convertValue(question, Map.class));
             }
-        } catch (Exception e) {
-            System.err.println("Failed to parse category quizzes: " + e.getMessage());
+
+            Map<String, Object> quizData = new HashMap<>();
+            quizData.put("date", date);
+            quizData.put("category", category);
+            quizData.put("questions", questions); // The list of 3 questions
+
+            writes.add(new BatchWriteService.PendingWrite("category_quizzes", docId, quizData));
+        }
+
+        WriteReport report = batchWriteService.write(label, writes);
+        report.setRejected(parsed.getRejected());
+
+        // Acknowledged writes go straight into the store
+        Set<String> written = new HashSet<>();
+        report.getItems().forEach(item -> {
+            if (item.isOk()) written.add(item.getPath());
+        });
+        for (BatchWriteService.PendingWrite write : writes) {
+            if (!written.contains(write.collection() + "/" + write.docId())) continue;
+            Map<?, ?> quizData = (Map<?, ?>) write.data();
+            quizStore.putCategory(date, (String) quizData.get("category"), (List<?>) quizData.get("questions"));
         }
+        System.out.println("✅ Saved " + report.getSucceeded() + "/" + writes.size() + " category quizzes for " + date);
+        return report;
     }
 
     // 2. RETRIEVE: Fetch a specific quiz (e.g., when user clicks "Attempt Quiz" on Sports card)
-    public List<Map<String, Object>> getQuizByCategory(String date, String category) throws ExecutionException, InterruptedException {
-        String docId = date + "_" + category;
-        var doc = db.collection("category_quizzes").document(docId).get().get();
+    // null if there is no such quiz
+    public QuizStore.Quiz getCategoryQuiz(String date, String category) throws ExecutionException, InterruptedException {
+        if (quizStore.isCategoriesReady()) return quizStore.getCategory(date, category);
 
-        if (doc.exists()) {
-            return (List<Map<String, Object>>) doc.get("questions");
+        var doc = db.collection("category_quizzes").document(QuizStore.key(date, category)).get().get();
+        return doc.exists() ? quizStore.fromQuestions(doc.get("questions")) : null;
+    }
+
+    // 3. ANSWER KEY: "Daily" is the home-screen quiz, anything else is that category's quiz for the date
+    public QuizStore.Quiz getQuizForGrading(String quizId, String date) throws ExecutionException, InterruptedException {
+        if (DAILY_QUIZ_ID.equals(quizId)) return getDailyQuiz();
+        return getCategoryQuiz(date != null && !date.isEmpty() ? date : LocalDate.now().toString(), quizId);
+    }
+
+    // 4. SUBMIT: grade against the stored answer key and award XP in one round trip
+    // Returns null if there is no such quiz
+    public QuizResult submit(QuizSubmission submission) throws ExecutionException, InterruptedException {
+        if (submission.getUserId() == null || submission.getQuizId() == null || submission.getAnswers() == null) {
+            throw new IllegalArgumentException("userId, quizId and answers are required");
         }
-        return Collections.emptyList(); // Return empty if not found
+
+        QuizStore.Quiz quiz = getQuizForGrading(submission.getQuizId(), submission.getDate());
+        if (quiz == null || quiz.questions().isEmpty()) return null;
+
+        List<JsonNode> questions = quiz.questions();
+        List<Integer> answers = submission.getAnswers();
+        if (answers.size() > questions.size()) {
+            throw new IllegalArgumentException("Got " + answers.size() + " answers for " + questions.size() + " questions");
+        }
+
+        // ✅ 1. Grade; unanswered questions count as wrong
+        QuizResult result = new QuizResult();
+        result.setQuizId(submission.getQuizId());
+        result.setTotalQuestions(questions.size());
+        int score = 0;
+        for (int i = 0; i < questions.size(); i++) {
+            JsonNode question = questions.get(i);
+            Integer selected = i < answers.size() ? answers.get(i) : null;
+            int correctIndex = question.path("correctIndex").asInt(-1);
+            boolean correct = selected != null && selected == correctIndex;
+            if (correct) score++;
+            result.getQuestions().add(new QuizResult.QuestionResult(selected, correctIndex, correct,
+                    question.path("explanation").asText(null)));
+        }
+        result.setScore(score);
+
+        // ✅ 2. Lock + XP through the write-behind buffer (the attempt locks the category even with no correct answers)
+        int points = score * XP_PER_CORRECT_ANSWER;
+        UserService.XpAward award = userService.awardXp(submission.getUserId(), points, submission.getQuizId());
+        if (!award.userFound()) throw new NoSuchElementException("User not found");
+
+        result.setXpAwarded(award.awarded());
+        result.setXpEarned(award.awarded() ? points : 0);
+        result.setXp(award.xp());
+        result.setMessage(award.awarded() ? "XP Added" : "Daily limit reached for " + submission.getQuizId());
+        return result;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,229 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.ListenerRegistration;
+import jakarta.annotation.PreDestroy;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory copy of the daily quiz and the recent category quizzes, held as ready-to-write JSON
+ * bytes next to the parsed questions. QuizService fills it on save; snapshot listeners on
+ * daily_quizzes/latest_quiz and category_quizzes keep every node in step. Once a listener has
+ * delivered its first snapshot, a miss is authoritative and reads never touch Firestore.
+ * A listener that errors is dead: its ready flag drops (reads fall back to Firestore again) and it
+ * is registered anew with exponential backoff.
+ * The stored questions double as the answer key for server-side grading.
+ */
+@Component
+public class QuizStore {
+
+    // Category quizzes are served for today; yesterday's stay for clients that loaded before midnight
+    private static final int RETAINED_DAYS = 2;
+    private static final long BASE_RETRY_MS = 1_000;
+    private static final long MAX_RETRY_MS = 60_000;
+
+    private final Firestore db;
+    private final ObjectMapper mapper;
+
+    // Fields only /quiz/submit needs; left out of the body served to server-graded clients
+    private static final List<String> ANSWER_FIELDS = List.of("correctIndex", "answer", "explanation");
+
+    /**
+     * A stored quiz: the full response body, the same body without answers, and the questions
+     * (with answers) they were built from, which /quiz/submit grades against.
+     */
+    public record Quiz(byte[] json, byte[] publicJson, List<JsonNode> questions) {}
+
+    private static final byte[] EMPTY_ARRAY = "[]".getBytes(StandardCharsets.UTF_8);
+    private static final Quiz EMPTY = new Quiz(EMPTY_ARRAY, EMPTY_ARRAY, List.of());
+
+    private volatile Quiz daily;
+    private volatile boolean dailyReady = false;
+
+    // "<date>_<category>" -> quiz
+    private final Map<String, Quiz> categories = new ConcurrentHashMap<>();
+    private volatile boolean categoriesReady = false;
+
+    private volatile ListenerRegistration dailyListener;
+    private volatile ListenerRegistration categoryListener;
+
+    // Consecutive listener failures, for the re-registration backoff; reset by the next good snapshot
+    private final AtomicInteger dailyFailures = new AtomicInteger();
+    private final AtomicInteger categoryFailures = new AtomicInteger();
+    private volatile boolean stopped = false;
+    private final ScheduledExecutorService retry = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "quiz-store-listener-retry");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public QuizStore(Firestore db, LlmJsonParser llmJsonParser) {
+        this.db = db;
+        this.mapper = llmJsonParser.mapper();
+    }
+
+    // ✅ 1. Listeners: the first snapshot warms the store, later ones apply writes from any node
+    @EventListener(ApplicationReadyEvent.class)
+    public void startListeners() {
+        listenToDaily();
+        listenToRecentCategories();
+    }
+
+    private void listenToDaily() {
+        if (stopped) return;
+        ListenerRegistration previous = dailyListener;
+
+        dailyListener = db.collection("daily_quizzes").document("latest_quiz").addSnapshotListener((doc, error) -> {
+            if (error != null) {
+                dailyReady = false;
+                retryLater("daily_quizzes", dailyFailures, this::listenToDaily, error);
+                return;
+            }
+            if (doc == null) return;
+            daily = doc.exists() ? fromJsonContent(doc.getString("jsonContent")) : null;
+            dailyReady = true;
+            dailyFailures.set(0);
+        });
+        if (previous != null) previous.remove();
+    }
+
+    // ✅ 2. At midnight, move the category window forward and drop quizzes that fell out of it
+    @Scheduled(cron = "0 0 0 * * *")
+    public void listenToRecentCategories() {
+        if (stopped) return;
+        String cutoff = LocalDate.now().minusDays(RETAINED_DAYS - 1).toString();
+        ListenerRegistration previous = categoryListener;
+
+        categoryListener = db.collection("category_quizzes").whereGreaterThanOrEqualTo("date", cutoff)
+                .addSnapshotListener((snapshot, error) -> {
+                    if (error != null) {
+                        categoriesReady = false;
+                        retryLater("category_quizzes", categoryFailures, this::listenToRecentCategories, error);
+                        return;
+                    }
+                    if (snapshot == null) return;
+
+                    Map<String, Quiz> current = new HashMap<>();
+                    for (DocumentSnapshot doc : snapshot.getDocuments()) {
+                        Quiz quiz = fromQuestions(doc.get("questions"));
+                        if (quiz != null) current.put(doc.getId(), quiz);
+                    }
+                    categories.putAll(current);
+                    categories.keySet().removeIf(id -> !current.containsKey(id));
+                    categoryFailures.set(0);
+                    if (!categoriesReady) {
+                        categoriesReady = true;
+                        System.out.println("🧠 Quiz store ready: " + current.size() + " category quizzes since " + cutoff);
+                    }
+                });
+        if (previous != null) previous.remove();
+    }
+
+    // Until then reads go to Firestore, so a missed update can't be served as the truth
+    private void retryLater(String name, AtomicInteger failures, Runnable register, Exception error) {
+        int failure = failures.incrementAndGet();
+        long delay = Math.min(MAX_RETRY_MS, BASE_RETRY_MS << Math.min(failure - 1, 16));
+        System.err.println("❌ " + name + " listener error (" + error.getMessage() + "), re-registering in " + delay + "ms");
+        if (stopped) return;
+        retry.schedule(register, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stopListeners() {
+        stopped = true;
+        retry.shutdownNow();
+        if (dailyListener != null) dailyListener.remove();
+        if (categoryListener != null) categoryListener.remove();
+    }
+
+    // ✅ 3. Write-through from QuizService, so this node serves a new quiz before its listener fires
+    public void putDaily(String jsonContent) {
+        Quiz quiz = fromJsonContent(jsonContent);
+        if (quiz != null) daily = quiz;
+    }
+
+    public void putCategory(String date, String category, List<?> questions) {
+        Quiz quiz = fromQuestions(questions);
+        if (quiz != null) categories.put(key(date, category), quiz);
+    }
+
+    // ✅ 4. Reads; until a listener has warmed the store, callers fall back to Firestore
+    public boolean isDailyReady() {
+        return dailyReady;
+    }
+
+    public Quiz getDaily() {
+        Quiz quiz = daily;
+        return quiz != null ? quiz : EMPTY;
+    }
+
+    public boolean isCategoriesReady() {
+        return categoriesReady;
+    }
+
+    // null = no quiz for that category and date
+    public Quiz getCategory(String date, String category) {
+        return categories.get(key(date, category));
+    }
+
+    public static String key(String date, String category) {
+        return date + "_" + category;
+    }
+
+    // ✅ 5. Parse once, serialize both bodies; null if the stored value is unusable
+    public Quiz fromJsonContent(String jsonContent) {
+        if (jsonContent == null) return null;
+        try {
+            JsonNode array = mapper.readTree(jsonContent);
+            if (!array.isArray()) return null;
+            List<JsonNode> questions = new ArrayList<>();
+            array.forEach(questions::add);
+            return build(questions);
+        } catch (Exception e) {
+            System.err.println("⚠️ Unreadable daily quiz: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public Quiz fromQuestions(Object questions) {
+        if (!(questions instanceof List<?> list) || list.isEmpty()) return null;
+        try {
+            List<JsonNode> nodes = new ArrayList<>(list.size());
+            for (Object question : list) nodes.add(mapper.valueToTree(question));
+            return build(nodes);
+        } catch (Exception e) {
+            System.err.println("⚠️ Unreadable category quiz: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private Quiz build(List<JsonNode> questions) throws JsonProcessingException {
+        ArrayNode full = mapper.createArrayNode();
+        ArrayNode redacted = mapper.createArrayNode();
+        for (JsonNode question : questions) {
+            full.add(question);
+            JsonNode copy = question.deepCopy();
+            if (copy instanceof ObjectNode object) object.remove(ANSWER_FIELDS);
+            redacted.add(copy);
+        }
+        return new Quiz(mapper.writeValueAsBytes(full), mapper.writeValueAsBytes(redacted), List.copyOf(questions));
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.demo.service;
+
+import com.example.demo.model.XpChangedEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Global rank by XP without a count() aggregation per profile read.
+ * A Fenwick tree counts users per XP value, so "how many users have more XP" is a prefix sum:
+ * O(log n) in memory. It's filled by a UserScanner pass (xp only), kept current from
+ * XpChangedEvent, and rebuilt by a nightly reconciliation scan that reports how far it had drifted.
+ * Events that arrive while a scan runs are replayed onto the new tree, so the swap loses none of them.
+ * XP above the tracked range shares the top bucket, so those users tie with each other.
+ */
+@Component
+public class RankIndex {
+
+    private final UserScanner userScanner;
+    private final int maxXp;
+
+    private volatile FenwickTree tree;
+    private volatile ScanReplay replay; // Set while a rebuild scan runs
+    private volatile boolean ready = false;
+    private volatile long lastDrift = 0;
+    private final AtomicBoolean scanning = new AtomicBoolean(false);
+    private final ExecutorService scanner = Executors.newVirtualThreadPerTaskExecutor();
+
+    public RankIndex(UserScanner userScanner, MeterRegistry meterRegistry,
+                     @Value("${keepup.rank.max-xp:1048575}") int maxXp) {
+        this.userScanner = userScanner;
+        this.maxXp = maxXp;
+        this.tree = new FenwickTree(maxXp + 1);
+        meterRegistry.gauge("keepup.rank.users", this, r -> r.tree.total());
+        meterRegistry.gauge("keepup.rank.drift", this, r -> r.lastDrift);
+    }
+
+    // ✅ 1. Bootstrap in the background; getRank falls back to count() until it's done
+    @EventListener(ApplicationReadyEvent.class)
+    public void bootstrap() {
+        scanner.submit(this::rebuild);
+    }
+
+    // ✅ 2. Reconciliation: rebuild from a fresh scan and swap it in
+    @Scheduled(cron = "${keepup.rank.reconcile-cron:0 30 3 * * *}")
+    public void reconcile() {
+        rebuild();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scanner.shutdownNow();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // 1 + number of users with strictly more XP
+    public int rankOf(long xp) {
+        return (int) (tree.countAbove(bucket(xp)) + 1);
+    }
+
+    // ✅ 3. Keep current: move the user from the old XP bucket to the new one.
+    // `replay` is read before `tree` and cleared after the swap, so an event racing the swap reaches the new tree once.
+    @EventListener
+    public void onXpChanged(XpChangedEvent event) {
+        ScanReplay scan = replay;
+        FenwickTree current = tree;
+        if (scan != null && scan.fresh != current) scan.changed(event);
+        if (event.getPreviousXp() != null) current.add(bucket(event.getPreviousXp()), -1);
+        current.add(bucket(event.getXp()), 1);
+    }
+
+    private void rebuild() {
+        if (!scanning.compareAndSet(false, true)) return;
+        long start = System.currentTimeMillis();
+        ScanReplay scan = new ScanReplay();
+        replay = scan;
+        try {
+            long users = userScanner.scan(doc -> {
+                Long xp = doc.getLong("xp");
+                scan.scanned(doc.getId(), xp != null ? xp : 0);
+            }, "xp");
+
+            FenwickTree fresh = scan.fresh;
+            FenwickTree previous = tree;
+            if (ready) {
+                lastDrift = previous.distance(fresh);
+                if (lastDrift > 0) System.out.println("⚖️ Rank index drift corrected: " + lastDrift + " bucket counts");
+            }
+            tree = fresh;
+            replay = null;
+            ready = true;
+            System.out.println("🏆 Rank index built: " + users + " users in " + (System.currentTimeMillis() - start) + "ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("❌ Rank index scan failed: " + e.getMessage());
+        } finally {
+            replay = null;
+            scanning.set(false);
+        }
+    }
+
+    private int bucket(long xp) {
+        return (int) Math.max(0, Math.min(maxXp, xp));
+    }
+
+    // The tree a rebuild scan is filling, plus the XP events that arrived meanwhile. The scan runs in
+    // document-id order, so `cursor` tells whether a user has been counted yet: one that hasn't is counted
+    // at its latest event's XP when the scan reaches it; one that has is moved like in the live tree.
+    // A user scanned before their first event is assumed to sit at that event's previousXp (the document
+    // can lag it by one write-behind flush). Only users with events are tracked.
+    private final class ScanReplay {
+        final FenwickTree fresh = new FenwickTree(maxXp + 1);
+        private final Map<String, Integer> counted = new HashMap<>(); // userId -> bucket counted in fresh
+        private final Map<String, Long> waiting = new HashMap<>(); // userId -> latest XP, not scanned yet
+        private String cursor = ""; // Last scanned user id
+
+        synchronized void scanned(String userId, long xp) {
+            cursor = userId;
+            Long latest = waiting.remove(userId);
+            int bucket = bucket(latest != null ? latest : xp);
+            fresh.add(bucket, 1);
+            if (latest != null) counted.put(userId, bucket);
+        }
+
+        synchronized void changed(XpChangedEvent event) {
+            String userId = event.getUserId();
+            Integer from = counted.get(userId);
+            if (from == null && userId.compareTo(cursor) > 0) {
+                waiting.put(userId, event.getXp());
+                return;
+            }
+            if (from == null && event.getPreviousXp() != null) from = bucket(event.getPreviousXp());
+            if (from != null) fresh.add(from, -1);
+            int to = bucket(event.getXp());
+            fresh.add(to, 1);
+            counted.put(userId, to);
+        }
+    }
+
+    // Binary indexed tree over bucket counts (1-based internally)
+    static final class FenwickTree {
+        private final long[] tree;
+        private long total;
+
+        FenwickTree(int size) {
+            this.tree = new long[size + 1];
+        }
+
+        synchronized void add(int index, long delta) {
+            for (int i = index + 1; i < tree.length; i += i & -i) tree[i] += delta;
+            total += delta;
+        }
+
+        // Users in buckets 0..index
+        synchronized long prefixSum(int index) {
+            return sumTo(index);
+        }
+
+        // Users in buckets above index; total and prefix read under one lock
+        synchronized long countAbove(int index) {
+            return total - sumTo(index);
+        }
+
+        private long sumTo(int index) {
+            long sum = 0;
+            for (int i = index + 1; i > 0; i -= i & -i) sum += tree[i];
+            return sum;
+        }
+
+        synchronized long total() {
+            return total;
+        }
+
+        // Sum of per-bucket count differences; both trees have the same size
+        long distance(FenwickTree other) {
+            long[] mine = snapshot(), theirs = other.snapshot();
+            long distance = 0;
+            for (int i = 1; i < mine.length; i++) distance += Math.abs(mine[i] - theirs[i]);
+            return distance;
+        }
+
+        // Per-bucket counts (1-based), undoing the tree's partial sums in O(n)
+        synchronized long[] snapshot() {
+            long[] counts = tree.clone();
+            for (int i = counts.length - 1; i > 0; i--) {
+                int parent = i + (i & -i);
+                if (parent < counts.length) counts[parent] -= counts[i];
+            }
+            return counts;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package com.example.demo.service;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.*;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Nightly rollover of the day that just ended, over every user:
+ * - streak: +1 if the user played any category that day, otherwise back to 0. "Played" comes from
+ *   lastActiveDate/prevActiveDate (kept by the XP flush), which still show the day after an early
+ *   quiz the next morning has overwritten lastPlayed.<category>
+ * - on the last day of the week, league promotion/demotion by XP gained that week
+ *   (xp - xpWeekStart), then a new weekly baseline
+ * The users collection is split with getPartitions and each partition is paged with startAfter on
+ * its own worker, reading only the fields the rules need, so memory is one page per worker.
+ * Changes go out through a BulkWriter per worker. After each page is written the partition's cursor
+ * is saved in its own doc, jobs/rollover_<date>/partitions/p<i> (one write per page, well under
+ * Firestore's per-document write rate), so a restarted run carries on where it stopped; the
+ * streakDate / weekStart fields make reprocessing a page harmless. Runs left unfinished in the last
+ * few days are resumed at startup and before each nightly run, oldest first. Resumes and nightly runs
+ * queue on one thread, so a resume still going at 00:05 delays the nightly run instead of skipping it.
+ */
+@Service
+public class RolloverJob {
+
+    private static final String COLLECTION_NAME = "users";
+    private static final String JOBS_COLLECTION = "jobs";
+    private static final String PARTITIONS_COLLECTION = "partitions";
+    private static final int RESUME_DAYS = 3;
+    private static final int PAGE_SIZE = 1000;
+    private static final int MAX_WRITE_ATTEMPTS = 5;
+    private static final String DONE = "done";
+
+    // Lowest to highest; users without a league start at the bottom
+    static final List<String> LEAGUES = List.of("Bronze", "Silver", "Gold");
+
+    private final Firestore db;
+    private final LeaderboardEngine leaderboardEngine;
+    private final int partitionCount;
+    private final int parallelism;
+    private final int maxOpsPerSecond;
+    private final long promoteWeeklyXp;
+    private final long demoteWeeklyXp;
+    private final DayOfWeek lastDayOfWeek;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile boolean stopped = false;
+    private final ExecutorService runs = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "rollover-runs");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong usersScanned = new AtomicLong();
+    private final AtomicLong usersUpdated = new AtomicLong();
+    private final AtomicLong writeFailures = new AtomicLong();
+    private final AtomicLong partitionsDone = new AtomicLong();
+    private final AtomicLong partitionsTotal = new AtomicLong();
+
+    // One partition's range and progress; cursor = last user written, null before the first page
+    private record Partition(String startAt, String endBefore, String cursor, boolean done) {}
+
+    public RolloverJob(Firestore db, LeaderboardEngine leaderboardEngine, MeterRegistry meterRegistry,
+                       @Value("${keepup.rollover.partitions:32}") int partitionCount,
+                       @Value("${keepup.rollover.parallelism:8}") int parallelism,
+                       @Value("${keepup.rollover.max-ops-per-second:5000}") int maxOpsPerSecond,
+                       @Value("${keepup.rollover.promote-weekly-xp:500}") long promoteWeeklyXp,
+                       @Value("${keepup.rollover.demote-weekly-xp:100}") long demoteWeeklyXp,
+                       @Value("${keepup.rollover.last-day-of-week:SUNDAY}") DayOfWeek lastDayOfWeek) {
+        this.db = db;
+        this.leaderboardEngine = leaderboardEngine;
+        this.partitionCount = partitionCount;
+        this.parallelism = parallelism;
+        this.maxOpsPerSecond = maxOpsPerSecond;
+        this.promoteWeeklyXp = promoteWeeklyXp;
+        this.demoteWeeklyXp = demoteWeeklyXp;
+        this.lastDayOfWeek = lastDayOfWeek;
+
+        meterRegistry.gauge("keepup.rollover.running", running, r -> r.get() ? 1 : 0);
+        meterRegistry.gauge("keepup.rollover.users.scanned", usersScanned);
+        meterRegistry.gauge("keepup.rollover.users.updated", usersUpdated);
+        meterRegistry.gauge("keepup.rollover.write.failures", writeFailures);
+        meterRegistry.gauge("keepup.rollover.partitions.done", partitionsDone);
+        meterRegistry.gauge("keepup.rollover.partitions.total", partitionsTotal);
+    }
+
+    // ✅ 1. Just after midnight, finish any earlier run that failed or was cut short, then roll over yesterday.
+    // Oldest first: a day's streak is only applied on top of the days before it (streakDate).
+    @Scheduled(cron = "${keepup.rollover.cron:0 5 0 * * *}")
+    public void rolloverYesterday() {
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        runs.submit(() -> {
+            for (LocalDate day : unfinished(yesterday.minusDays(RESUME_DAYS), yesterday)) run(day);
+            run(yesterday);
+        });
+    }
+
+    // A run cut short by a restart is picked up from its checkpoint
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinished() {
+        LocalDate today = LocalDate.now();
+        List<LocalDate> days = unfinished(today.minusDays(RESUME_DAYS + 1), today);
+        if (days.isEmpty()) return;
+        System.out.println("🔁 Resuming rollover for " + days);
+        runs.submit(() -> days.forEach(this::run));
+    }
+
+    // Days in [from, until) whose run started but never finished
+    private List<LocalDate> unfinished(LocalDate from, LocalDate until) {
+        List<LocalDate> days = new ArrayList<>();
+        for (LocalDate day = from; day.isBefore(until); day = day.plusDays(1)) {
+            try {
+                DocumentSnapshot checkpoint = checkpointRef(day).get().get();
+                if (checkpoint.exists() && !DONE.equals(checkpoint.getString("status"))) days.add(day);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                System.err.println("⚠️ Could not check rollover checkpoint for " + day + ": " + e.getMessage());
+            }
+        }
+        return days;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopped = true;
+        running.set(false); // Workers stop after their current page; the checkpoints have the rest
+        runs.shutdownNow();
+    }
+
+    // ✅ 2. One run: plan (or reload) partitions, then work through them in parallel
+    public void run(LocalDate day) {
+        if (stopped) return;
+        if (!running.compareAndSet(false, true)) {
+            System.out.println("⏳ Rollover already running");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        boolean weekly = day.getDayOfWeek() == lastDayOfWeek;
+        usersScanned.set(0);
+        usersUpdated.set(0);
+        writeFailures.set(0);
+        partitionsDone.set(0);
+
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism, Thread.ofVirtual().factory());
+        try {
+            DocumentReference checkpoint = checkpointRef(day);
+            DocumentSnapshot saved = checkpoint.get().get();
+            if (saved.exists() && DONE.equals(saved.getString("status"))) {
+                System.out.println("✅ Rollover for " + day + " already done");
+                return;
+            }
+
+            List<Partition> partitions = saved.exists() ? loadPartitions(checkpoint) : planPartitions(checkpoint, day, weekly);
+            partitionsTotal.set(partitions.size());
+
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < partitions.size(); i++) {
+                Partition partition = partitions.get(i);
+                if (partition.done()) {
+                    partitionsDone.incrementAndGet();
+                    continue;
+                }
+                DocumentReference progress = partitionRef(checkpoint, i);
+                tasks.add(workers.submit(() -> {
+                    processPartition(progress, partition, day, weekly);
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) task.get();
+
+            if (!running.get()) return; // Stopped for shutdown; resume later
+            checkpoint.update("status", DONE, "finishedAt", System.currentTimeMillis(),
+                    "usersScanned", usersScanned.get(), "usersUpdated", usersUpdated.get()).get();
+            System.out.println("🌙 Rollover for " + day + (weekly ? " (weekly)" : "") + ": " + usersScanned.get()
+                    + " users scanned, " + usersUpdated.get() + " updated in " + (System.currentTimeMillis() - start) + "ms");
+
+            // League moves change which board a user is on
+            if (weekly) leaderboardEngine.rebuild();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("❌ Rollover for " + day + " failed (resumable): " + e.getMessage());
+        } finally {
+            workers.shutdownNow();
+            running.set(false);
+        }
+    }
+
+    // Partition boundaries are stored so a resumed run pages exactly the same ranges. The run doc and
+    // every partition doc go in one batch, so a run doc never exists without its partitions.
+    private List<Partition> planPartitions(DocumentReference checkpoint, LocalDate day, boolean weekly) throws ExecutionException, InterruptedException {
+        List<QueryPartition> planned = db.collectionGroup(COLLECTION_NAME).getPartitions(partitionCount).get();
+        List<Partition> partitions = new ArrayList<>();
+        WriteBatch batch = db.batch();
+        for (int i = 0; i < planned.size(); i++) {
+            Partition p = new Partition(boundary(planned.get(i).getStartAt()), boundary(planned.get(i).getEndBefore()), null, false);
+            partitions.add(p);
+            Map<String, Object> bounds = new HashMap<>();
+            bounds.put("index", i);
+            bounds.put("startAt", p.startAt());
+            bounds.put("endBefore", p.endBefore());
+            bounds.put("status", "running");
+            batch.set(partitionRef(checkpoint, i), bounds);
+        }
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("date", day.toString());
+        data.put("weekly", weekly);
+        data.put("status", "running");
+        data.put("startedAt", System.currentTimeMillis());
+        data.put("partitions", partitions.size());
+        batch.set(checkpoint, data);
+        batch.commit().get();
+        return partitions;
+    }
+
+    private static List<Partition> loadPartitions(DocumentReference checkpoint) throws ExecutionException, InterruptedException {
+        List<QueryDocumentSnapshot> docs = checkpoint.collection(PARTITIONS_COLLECTION).orderBy("index").get().get().getDocuments();
+        List<Partition> partitions = new ArrayList<>();
+        for (QueryDocumentSnapshot doc : docs) {
+            partitions.add(new Partition(doc.getString("startAt"), doc.getString("endBefore"), doc.getString("cursor"),
+                    DONE.equals(doc.getString("status"))));
+        }
+        return partitions;
+    }
+
+    private static String boundary(Object[] cursor) {
+        return cursor != null && cursor.length > 0 && cursor[0] instanceof DocumentReference ref ? ref.getPath() : null;
+    }
+
+    // ✅ 3. Page through one partition: compute changes, write them, then move the partition's cursor
+    private void processPartition(DocumentReference progress, Partition partition, LocalDate day, boolean weekly) throws Exception {
+        Query base = db.collectionGroup(COLLECTION_NAME).orderBy(FieldPath.documentId())
+                .select("xp", "lastPlayed", "lastActiveDate", "prevActiveDate", "streak", "streakDate", "league",
+                        "xpWeekStart", "weekStart");
+        if (partition.endBefore() != null) base = base.endBefore(db.document(partition.endBefore()));
+
+        BulkWriter writer = db.bulkWriter(BulkWriterOptions.builder()
+                .setInitialOpsPerSecond(Math.max(1, maxOpsPerSecond / parallelism))
+                .setMaxOpsPerSecond(Math.max(1, maxOpsPerSecond / parallelism))
+                .build());
+        writer.addWriteErrorListener(error -> error.getFailedAttempts() < MAX_WRITE_ATTEMPTS);
+        String cursor = partition.cursor();
+        try {
+            while (running.get()) {
+                Query page = base;
+                if (cursor != null) page = page.startAfter(db.document(cursor));
+                else if (partition.startAt() != null) page = page.startAt(db.document(partition.startAt()));
+
+                List<QueryDocumentSnapshot> docs = page.limit(PAGE_SIZE).get().get().getDocuments();
+                List<ApiFuture<WriteResult>> writes = new ArrayList<>();
+                for (QueryDocumentSnapshot doc : docs) {
+                    Map<String, Object> changes = rollover(doc, day, weekly);
+                    if (!changes.isEmpty()) writes.add(writer.update(doc.getReference(), changes));
+                }
+                writer.flush().get();
+                for (ApiFuture<WriteResult> write : writes) {
+                    try {
+                        write.get();
+                        usersUpdated.incrementAndGet();
+                    } catch (ExecutionException e) {
+                        writeFailures.incrementAndGet(); // Picked up again by the next run's rules
+                    }
+                }
+                usersScanned.addAndGet(docs.size());
+
+                if (docs.size() < PAGE_SIZE) {
+                    progress.update("status", DONE).get();
+                    partitionsDone.incrementAndGet();
+                    return;
+                }
+                cursor = docs.get(docs.size() - 1).getReference().getPath();
+                progress.update("cursor", cursor).get();
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    // ✅ 4. The rules for one user; empty = nothing to write
+    Map<String, Object> rollover(DocumentSnapshot user, LocalDate day, boolean weekly) {
+        Map<String, Object> changes = new HashMap<>();
+        String dayKey = day.toString();
+
+        // Streak (streakDate = last day applied, so a repeated page is a no-op)
+        String streakDate = user.getString("streakDate");
+        if (streakDate == null || streakDate.compareTo(dayKey) < 0) {
+            // The day is either the latest active one or, if they've already played since midnight, the one before it.
+            // lastPlayed only covers users whose last award predates lastActiveDate.
+            boolean played = dayKey.equals(user.getString("lastActiveDate")) || dayKey.equals(user.getString("prevActiveDate"))
+                    || user.get("lastPlayed") instanceof Map<?, ?> lastPlayed && lastPlayed.containsValue(dayKey);
+            Long streak = user.getLong("streak");
+            long current = streak != null ? streak : 0;
+            if (played) {
+                boolean continuous = streakDate == null || streakDate.equals(day.minusDays(1).toString());
+                changes.put("streak", continuous ? current + 1 : 1);
+                changes.put("streakDate", dayKey);
+            } else if (current != 0) {
+                changes.put("streak", 0);
+                changes.put("streakDate", dayKey);
+            }
+            // Not played and already at 0: no write; the gap is noticed when they next play
+        }
+
+        // League (weekStart = first day of the week the baseline belongs to)
+        if (weekly) {
+            String nextWeek = day.plusDays(1).toString();
+            String weekStart = user.getString("weekStart");
+            if (weekStart == null || weekStart.compareTo(nextWeek) < 0) {
+                Long xp = user.getLong("xp");
+                Long xpWeekStart = user.getLong("xpWeekStart");
+                long total = xp != null ? xp : 0;
+                String league = user.getString("league");
+                int level = Math.max(0, LEAGUES.indexOf(league != null ? league : LEAGUES.get(0)));
+
+                // No baseline yet: this week only sets one
+                if (xpWeekStart != null) {
+                    long gained = total - xpWeekStart;
+                    if (gained >= promoteWeeklyXp) level = Math.min(LEAGUES.size() - 1, level + 1);
+                    else if (gained < demoteWeeklyXp) level = Math.max(0, level - 1);
+                }
+                changes.put("league", LEAGUES.get(level));
+                changes.put("xpWeekStart", total);
+                changes.put("weekStart", nextWeek);
+            }
+        }
+        return changes;
+    }
+
+    private DocumentReference checkpointRef(LocalDate day) {
+        return db.collection(JOBS_COLLECTION).document("rollover_" + day);
+    }
+
+    private static DocumentReference partitionRef(DocumentReference checkpoint, int index) {
+        return checkpoint.collection(PARTITIONS_COLLECTION).document("p" + index);
+    }
+}
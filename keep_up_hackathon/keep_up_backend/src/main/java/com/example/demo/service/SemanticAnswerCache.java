@@ -0,0 +1,151 @@
+package com.example.demo.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Chat answers for the current news day, looked up by question similarity.
+ * A question is answered from the cache when its embedding is within the similarity threshold of
+ * an earlier question AND retrieval picked the same local stories for both, so a paraphrase of
+ * "what happened with X" reuses the answer but a question that lands on different stories does not.
+ * Entries for a day are dropped when stories for that day are ingested.
+ */
+@Component
+public class SemanticAnswerCache {
+
+    private static final int MAX_ENTRIES_PER_DAY = 500;
+
+    private record Entry(float[] vector, String matchKey, String answer, long createdAt) {}
+
+    // Produces the answer on a miss (the actual chat call)
+    public interface Loader {
+        String load();
+    }
+
+    private final EmbeddingModel embeddingModel;
+    private final double minSimilarity;
+    private final long ttlMs;
+
+    // news day -> entries, oldest first
+    private final Map<String, List<Entry>> entriesByDay = new HashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public SemanticAnswerCache(EmbeddingModel embeddingModel,
+                               MeterRegistry meterRegistry,
+                               @Value("${keepup.chat.answer-cache.min-similarity:0.85}") double minSimilarity,
+                               @Value("${keepup.chat.answer-cache.ttl-minutes:60}") long ttlMinutes) {
+        this.embeddingModel = embeddingModel;
+        this.minSimilarity = minSimilarity;
+        this.ttlMs = ttlMinutes * 60 * 1000;
+        this.hits = meterRegistry.counter("keepup.chat.answer.cache", "result", "hit");
+        this.misses = meterRegistry.counter("keepup.chat.answer.cache", "result", "miss");
+        meterRegistry.gauge("keepup.chat.answer.cache.entries", this, SemanticAnswerCache::size);
+    }
+
+    // Identifies the set of local stories an answer was grounded on
+    public static String matchKey(List<String> toonIds) {
+        return String.join(",", new TreeSet<>(toonIds));
+    }
+
+    // ✅ 1. Nearest earlier question with the same local matches, or a fresh answer
+    public String get(String question, String matchKey, Loader loader) {
+        Probe probe = probe(question, matchKey);
+        if (probe.answer() != null) return probe.answer();
+
+        String answer = loader.load();
+        probe.store(answer);
+        return answer;
+    }
+
+    // Lookup that can be completed later, for answers that are streamed rather than returned
+    public Probe probe(String question, String matchKey) {
+        String day = LocalDate.now().toString();
+        float[] vector = HnswIndex.normalize(embeddingModel.embed(question.strip().toLowerCase(Locale.ROOT)));
+
+        Entry cached = lookup(day, vector, matchKey);
+        if (cached != null) hits.increment();
+        else misses.increment();
+        return new Probe(day, vector, matchKey, cached != null ? cached.answer() : null);
+    }
+
+    public final class Probe {
+        private final String day;
+        private final float[] vector;
+        private final String matchKey;
+        private final String answer;
+
+        private Probe(String day, float[] vector, String matchKey, String answer) {
+            this.day = day;
+            this.vector = vector;
+            this.matchKey = matchKey;
+            this.answer = answer;
+        }
+
+        // Cached answer, or null on a miss
+        public String answer() {
+            return answer;
+        }
+
+        public void store(String freshAnswer) {
+            if (answer != null || freshAnswer == null || freshAnswer.isBlank()) return;
+            SemanticAnswerCache.this.store(day, new Entry(vector, matchKey, freshAnswer, System.currentTimeMillis()));
+        }
+    }
+
+    // ✅ 2. New stories for a day can change the answers grounded on it
+    public synchronized void invalidate(String date) {
+        List<Entry> removed = entriesByDay.remove(date);
+        if (removed != null && !removed.isEmpty()) {
+            System.out.println("🧹 Dropped " + removed.size() + " cached chat answers for " + date);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        entriesByDay.clear();
+    }
+
+    public synchronized int size() {
+        return entriesByDay.values().stream().mapToInt(List::size).sum();
+    }
+
+    private synchronized Entry lookup(String day, float[] vector, String matchKey) {
+        List<Entry> entries = entriesByDay.get(day);
+        if (entries == null) return null;
+
+        long now = System.currentTimeMillis();
+        entries.removeIf(e -> now - e.createdAt() >= ttlMs);
+
+        Entry best = null;
+        double bestScore = minSimilarity;
+        for (Entry entry : entries) {
+            if (!entry.matchKey().equals(matchKey) || entry.vector().length != vector.length) continue;
+            double score = dot(entry.vector(), vector);
+            if (score >= bestScore) {
+                best = entry;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    private synchronized void store(String day, Entry entry) {
+        entriesByDay.keySet().removeIf(d -> !d.equals(day)); // Only the current news day is kept
+        List<Entry> entries = entriesByDay.computeIfAbsent(day, d -> new ArrayList<>());
+        entries.add(entry);
+        if (entries.size() > MAX_ENTRIES_PER_DAY) entries.remove(0);
+    }
+
+    private static double dot(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) sum += a[i] * b[i];
+        return sum;
+    }
+}
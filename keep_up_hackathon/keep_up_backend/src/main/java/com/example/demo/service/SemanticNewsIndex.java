@@ -0,0 +1,214 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Toon;
+import com.google.cloud.firestore.Blob;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import jakarta.annotation.PreDestroy;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedding-backed retrieval for the chat path.
+ * Each story is embedded once (at processAndSave, or on first sight if no stored vector exists),
+ * the vector is persisted to toon_embeddings as a packed float blob, and lookups run against an
+ * in-memory HNSW graph. Listener-driven changes (load, upsert, remove) run in order on one loader
+ * thread, and a stored vector never replaces one that is already indexed.
+ */
+@Component
+public class SemanticNewsIndex {
+
+    private static final String COLLECTION_NAME = "toon_embeddings";
+    private static final int GET_ALL_CHUNK = 100;
+
+    private final EmbeddingModel embeddingModel;
+    private final BatchWriteService batchWriteService;
+    private final Firestore db;
+    private final String modelId;
+    private final double minSimilarity;
+
+    private final Map<String, Toon> docs = new ConcurrentHashMap<>();
+    private volatile HnswIndex index;
+
+    // Listener snapshots arrive on Firestore's callback thread; embedding work happens here instead
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "semantic-index-loader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public SemanticNewsIndex(EmbeddingModel embeddingModel,
+                             BatchWriteService batchWriteService,
+                             Firestore db,
+                             @Value("${keepup.embedding.provider:local}") String provider,
+                             @Value("${keepup.embedding.min-similarity:0.2}") double minSimilarity) {
+        this.embeddingModel = embeddingModel;
+        this.batchWriteService = batchWriteService;
+        this.db = db;
+        this.modelId = provider;
+        this.minSimilarity = minSimilarity;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+
+    // ✅ 1. Fresh stories from processAndSave: embed in one call, persist, index
+    public void indexNew(List<Toon> toons) {
+        if (toons.isEmpty()) return;
+
+        List<float[]> vectors = embed(toons);
+        List<BatchWriteService.PendingWrite> writes = new ArrayList<>();
+        for (int i = 0; i < toons.size(); i++) {
+            Toon toon = toons.get(i);
+            put(toon, vectors.get(i));
+            writes.add(new BatchWriteService.PendingWrite(COLLECTION_NAME, toon.getId(), Map.of(
+                    "model", modelId,
+                    "dims", vectors.get(i).length,
+                    "vector", toBlob(vectors.get(i)))));
+        }
+        batchWriteService.write("embeddings", writes);
+    }
+
+    // ✅ 2. Stories seen via the toon_index listener: reuse stored vectors, embed only what's missing
+    public void loadAsync(List<Toon> toons) {
+        List<Toon> unseen = toons.stream().filter(t -> !docs.containsKey(t.getId())).toList();
+        if (unseen.isEmpty()) return;
+
+        submit("loading embeddings", () -> load(unseen));
+    }
+
+    // ✅ 2b. Changed stories: re-embed and replace in one step (HnswIndex.add swaps the node under its lock),
+    // queued behind any pending load so an older stored vector can't land afterwards
+    public void upsertAsync(List<Toon> toons) {
+        if (toons.isEmpty()) return;
+
+        submit("updating embeddings", () -> {
+            List<Toon> changed = new ArrayList<>();
+            for (Toon toon : toons) {
+                Toon current = docs.get(toon.getId());
+                if (current != null && embeddingText(current).equals(embeddingText(toon))) {
+                    docs.put(toon.getId(), toon); // Same text, same vector: only the metadata changed
+                } else {
+                    changed.add(toon);
+                }
+            }
+            if (!changed.isEmpty()) indexNew(changed);
+        });
+    }
+
+    public void removeAsync(String toonId) {
+        submit("removing embedding", () -> remove(toonId));
+    }
+
+    private synchronized void remove(String toonId) {
+        docs.remove(toonId);
+        if (index != null) index.remove(toonId);
+    }
+
+    private void submit(String action, Callable<?> task) {
+        loader.submit(() -> {
+            try {
+                task.call();
+            } catch (Exception e) {
+                System.err.println("❌ Error " + action + ": " + e.getMessage());
+            }
+        });
+    }
+
+    // ✅ 3. Semantic lookup: nearest stories above the similarity floor, best first
+    public List<Toon> search(String text, int limit) {
+        if (index == null || text == null || text.isBlank()) return new ArrayList<>();
+
+        float[] query = HnswIndex.normalize(embeddingModel.embed(text));
+        if (query.length != index.dimensions()) return new ArrayList<>();
+
+        List<Toon> results = new ArrayList<>();
+        for (HnswIndex.Match match : index.search(query, limit)) {
+            if (match.score() < minSimilarity) break;
+            Toon toon = docs.get(match.id());
+            if (toon != null) results.add(toon);
+        }
+        return results;
+    }
+
+    public int size() {
+        return docs.size();
+    }
+
+    private void load(List<Toon> toons) throws Exception {
+        List<Toon> missing = new ArrayList<>();
+
+        for (int start = 0; start < toons.size(); start += GET_ALL_CHUNK) {
+            List<Toon> chunk = toons.subList(start, Math.min(start + GET_ALL_CHUNK, toons.size()));
+            DocumentReference[] refs = chunk.stream()
+                    .map(t -> db.collection(COLLECTION_NAME).document(t.getId()))
+                    .toArray(DocumentReference[]::new);
+
+            List<DocumentSnapshot> stored = db.getAll(refs).get();
+            for (int i = 0; i < chunk.size(); i++) {
+                DocumentSnapshot snapshot = stored.get(i);
+                Blob blob = snapshot.exists() && modelId.equals(snapshot.getString("model")) ? snapshot.getBlob("vector") : null;
+                if (blob != null) putIfAbsent(chunk.get(i), fromBlob(blob));
+                else if (!docs.containsKey(chunk.get(i).getId())) missing.add(chunk.get(i));
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            System.out.println("🧭 Embedding " + missing.size() + " stories without stored vectors");
+            indexNew(missing);
+        }
+        System.out.println("🧭 Semantic index ready: " + docs.size() + " stories");
+    }
+
+    private List<float[]> embed(List<Toon> toons) {
+        List<String> texts = toons.stream().map(SemanticNewsIndex::embeddingText).toList();
+        List<float[]> raw = embeddingModel.embed(texts);
+        List<float[]> vectors = new ArrayList<>(raw.size());
+        for (float[] v : raw) vectors.add(HnswIndex.normalize(v));
+        return vectors;
+    }
+
+    // Stored vectors may predate a fresher one indexed since the load was queued
+    private synchronized void putIfAbsent(Toon toon, float[] vector) {
+        if (!docs.containsKey(toon.getId())) put(toon, vector);
+    }
+
+    private synchronized void put(Toon toon, float[] vector) {
+        if (index == null) index = new HnswIndex(vector.length);
+        if (vector.length != index.dimensions()) return; // Vector from a different model; ignore
+        index.add(toon.getId(), vector);
+        docs.put(toon.getId(), toon);
+    }
+
+    private static String embeddingText(Toon toon) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(toon.getTitle()).append(". ").append(toon.getDescription()).append(". ").append(toon.getTopic());
+        if (toon.getKeywords() != null) sb.append(". ").append(String.join(", ", toon.getKeywords()));
+        return sb.toString();
+    }
+
+    private static Blob toBlob(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (float v : vector) buffer.putFloat(v);
+        return Blob.fromBytes(buffer.array());
+    }
+
+    private static float[] fromBlob(Blob blob) {
+        ByteBuffer buffer = ByteBuffer.wrap(blob.toBytes()).order(ByteOrder.LITTLE_ENDIAN);
+        float[] vector = new float[buffer.remaining() / Float.BYTES];
+        for (int i = 0; i < vector.length; i++) vector[i] = buffer.getFloat();
+        return vector;
+    }
+}
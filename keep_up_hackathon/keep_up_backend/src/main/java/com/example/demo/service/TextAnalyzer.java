@@ -0,0 +1,99 @@
+package com.example.demo.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// Shared tokenizer so the search index and the queries run against it agree on what a "term" is
+public final class TextAnalyzer {
+
+    private static final Set<String> STOPWORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "but", "by", "for", "from", "has", "have",
+            "he", "her", "his", "i", "in", "into", "is", "it", "its", "me", "my", "of", "on", "or",
+            "our", "she", "so", "than", "that", "the", "their", "them", "then", "there", "these",
+            "they", "this", "to", "up", "was", "we", "were", "what", "when", "where", "which",
+            "who", "why", "will", "with", "you", "your", "about", "tell", "did", "do", "does",
+            "how", "any", "can", "could", "would", "should", "today", "news", "latest"
+    );
+
+    private TextAnalyzer() {}
+
+    // Lowercase, split on anything that isn't a letter/digit, drop stopwords and 1-char noise
+    public static List<String> analyze(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isEmpty()) return terms;
+
+        StringBuilder current = new StringBuilder();
+        String lower = text.toLowerCase(Locale.ROOT);
+        for (int i = 0; i <= lower.length(); i++) {
+            char c = i < lower.length() ? lower.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                current.append(c);
+            } else if (current.length() > 0) {
+                addTerm(terms, current.toString());
+                current.setLength(0);
+            }
+        }
+        return terms;
+    }
+
+    // Same terms, reduced to their stems, for keyword matching ("rates"/"rated"/"rating" -> "rate")
+    public static List<String> analyzeStems(String text) {
+        List<String> terms = analyze(text);
+        terms.replaceAll(TextAnalyzer::stem);
+        return terms;
+    }
+
+    // Light suffix stripper (plurals, -ed/-ing and a final -e, after Porter steps 1 and 5); every inflection of a word maps to one stem
+    public static String stem(String term) {
+        if (term.length() <= 3 || !Character.isLetter(term.charAt(term.length() - 1))) return term;
+
+        String s = term;
+        if (s.endsWith("sses")) s = s.substring(0, s.length() - 2);
+        else if (s.endsWith("ies") && s.length() > 4) s = s.substring(0, s.length() - 3) + "y";
+        else if (s.endsWith("s") && !s.endsWith("ss") && !s.endsWith("us") && !s.endsWith("is")) s = s.substring(0, s.length() - 1);
+
+        if (s.endsWith("eed")) return s;
+        String base = null;
+        if (s.endsWith("ing")) base = s.substring(0, s.length() - 3);
+        else if (s.endsWith("ed")) base = s.substring(0, s.length() - 2);
+        else if (s.endsWith("e") && !s.endsWith("ee")) base = s.substring(0, s.length() - 1); // "compute" meets "computing"
+        if (base == null || base.length() < 3 || !hasVowel(base)) return s;
+
+        if (base.endsWith("at") || base.endsWith("bl") || base.endsWith("iz")) return base + "e";
+        char last = base.charAt(base.length() - 1);
+        if (last == base.charAt(base.length() - 2) && "aeioulsz".indexOf(last) < 0) {
+            return base.substring(0, base.length() - 1); // "shipping" -> "ship"
+        }
+        if (isShortSyllable(base)) return base + "e"; // "hoping" -> "hope"
+        return base;
+    }
+
+    public static boolean isStopword(String token) {
+        return STOPWORDS.contains(token);
+    }
+
+    // Single consonant-vowel-consonant syllable, e.g. "hop" or "vot" (not ending in w/x/y)
+    private static boolean isShortSyllable(String s) {
+        int n = s.length();
+        if (n != 3 && !(n == 4 && !isVowel(s, 0) && !isVowel(s, 1))) return false;
+        return !isVowel(s, n - 3) && isVowel(s, n - 2) && !isVowel(s, n - 1) && "wxy".indexOf(s.charAt(n - 1)) < 0;
+    }
+
+    private static boolean isVowel(String s, int i) {
+        return "aeiou".indexOf(s.charAt(i)) >= 0;
+    }
+
+    private static boolean hasVowel(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if ("aeiouy".indexOf(s.charAt(i)) >= 0) return true;
+        }
+        return false;
+    }
+
+    private static void addTerm(List<String> terms, String token) {
+        if (token.length() < 2 || STOPWORDS.contains(token)) return;
+        terms.add(token);
+    }
+}
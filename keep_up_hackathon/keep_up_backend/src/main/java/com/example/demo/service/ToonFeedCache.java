@@ -0,0 +1,120 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Toon;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Feed lists keyed by publishedDate, plus one "latest" entry for the undated feed.
+ * Entries are dropped by the toon_index snapshot listener when a story for that date changes;
+ * the TTL only bounds staleness if the listener is ever disconnected. Keys are validated ISO dates
+ * and the map is an LRU of at most keepup.feed.cache.max-dates entries, so clients cannot grow it.
+ */
+@Component
+public class ToonFeedCache {
+
+    static final String LATEST_KEY = "__latest__";
+    private static final long MAX_STALENESS_MS = 10 * 60 * 1000;
+
+    private record Entry(List<Toon> toons, long loadedAt) {}
+
+    // Firestore query for one key; failures propagate so errors are never cached
+    public interface Loader {
+        List<Toon> load() throws Exception;
+    }
+
+    private final int maxDates;
+    private final LinkedHashMap<String, Entry> entries;
+    // Bumped on every invalidation so a load that raced with one is not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter invalidations;
+
+    public ToonFeedCache(MeterRegistry meterRegistry,
+                         @Value("${keepup.feed.cache.max-dates:64}") int maxDates) {
+        this.maxDates = maxDates;
+        this.entries = new LinkedHashMap<>(32, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > ToonFeedCache.this.maxDates;
+            }
+        };
+        this.hits = meterRegistry.counter("keepup.feed.cache", "result", "hit");
+        this.misses = meterRegistry.counter("keepup.feed.cache", "result", "miss");
+        this.invalidations = meterRegistry.counter("keepup.feed.cache.invalidations");
+        meterRegistry.gauge("keepup.feed.cache.entries", this, ToonFeedCache::size);
+    }
+
+    // Empty = the latest feed; anything else must be an ISO date (yyyy-MM-dd), returned in canonical form
+    public static String keyFor(String dateFilter) {
+        if (dateFilter == null || dateFilter.isEmpty()) return LATEST_KEY;
+        try {
+            return LocalDate.parse(dateFilter).toString();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("date must be an ISO date (yyyy-MM-dd), got: " + dateFilter);
+        }
+    }
+
+    public List<Toon> get(String key, Loader loader) throws Exception {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.currentTimeMillis() - entry.loadedAt() < MAX_STALENESS_MS) {
+                hits.increment();
+                return entry.toons();
+            }
+        }
+
+        misses.increment();
+        long gen = generation.get();
+        List<Toon> toons = List.copyOf(loader.load());
+        synchronized (entries) {
+            if (generation.get() == gen) entries.put(key, new Entry(toons, System.currentTimeMillis()));
+        }
+        return toons;
+    }
+
+    // The cached list if it's present and fresh; never loads
+    public List<Toon> peek(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null || System.currentTimeMillis() - entry.loadedAt() >= MAX_STALENESS_MS) return null;
+            hits.increment();
+            return entry.toons();
+        }
+    }
+
+    // A story for `date` changed: that date's list and the "latest" list are both stale
+    public void invalidate(String date) {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            if (date != null) entries.remove(date);
+            entries.remove(LATEST_KEY);
+        }
+        invalidations.increment();
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            generation.incrementAndGet();
+            entries.clear();
+        }
+        invalidations.increment();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.demo.service;
+
+import com.example.demo.model.XpChangedEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User documents by userId, bounded LRU, including "no such user" results for a shorter time.
+ * XP awards and renames on this node are applied to the cached copy through XpChangedEvent and
+ * update(), so a profile read right after a quiz still hits memory; the TTL bounds how long a
+ * change made on another node can go unseen. Every such change also stamps the user, cached or not,
+ * and a load that a change raced is returned but not cached.
+ */
+@Component
+public class UserProfileCache {
+
+    // Loads one user document; null = it doesn't exist. Failures propagate so errors are never cached
+    public interface Loader {
+        Map<String, Object> load() throws Exception;
+    }
+
+    private record Entry(Map<String, Object> data, long loadedAt) {}
+
+    private final int maxEntries;
+    private final long ttlMs;
+    private final long negativeTtlMs;
+
+    private final LinkedHashMap<String, Entry> entries;
+    // userId -> stamp of the last change seen on this node; a load is cached only if the stamp didn't move
+    private final LinkedHashMap<String, Long> versions;
+    private final AtomicLong stamps = new AtomicLong();
+    // Bumped when a stamp falls out of `versions`, so a load it could have invalidated is not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public UserProfileCache(MeterRegistry meterRegistry,
+                            @Value("${keepup.profile.cache.max-entries:10000}") int maxEntries,
+                            @Value("${keepup.profile.cache.ttl-seconds:120}") long ttlSeconds,
+                            @Value("${keepup.profile.cache.negative-ttl-seconds:30}") long negativeTtlSeconds) {
+        this.maxEntries = maxEntries;
+        this.ttlMs = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.negativeTtlMs = TimeUnit.SECONDS.toMillis(negativeTtlSeconds);
+        this.entries = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > UserProfileCache.this.maxEntries;
+            }
+        };
+        this.versions = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if (size() <= UserProfileCache.this.maxEntries) return false;
+                generation.incrementAndGet();
+                return true;
+            }
+        };
+        this.hits = meterRegistry.counter("keepup.profile.cache", "result", "hit");
+        this.misses = meterRegistry.counter("keepup.profile.cache", "result", "miss");
+        meterRegistry.gauge("keepup.profile.cache.entries", this, UserProfileCache::size);
+    }
+
+    // ✅ 1. Read-through; the returned map is read-only, null = no such user
+    public Map<String, Object> get(String userId, Loader loader) throws Exception {
+        long gen;
+        Long version;
+        synchronized (entries) {
+            Entry entry = entries.get(userId);
+            if (entry != null && !isExpired(entry)) {
+                hits.increment();
+                return entry.data();
+            }
+            gen = generation.get();
+            version = versions.get(userId);
+        }
+
+        misses.increment();
+        Map<String, Object> data = loader.load();
+        Map<String, Object> frozen = data != null ? Collections.unmodifiableMap(new HashMap<>(data)) : null;
+        synchronized (entries) {
+            if (generation.get() == gen && Objects.equals(versions.get(userId), version)) {
+                entries.put(userId, new Entry(frozen, System.currentTimeMillis()));
+            }
+        }
+        return frozen;
+    }
+
+    public void put(String userId, Map<String, Object> data) {
+        synchronized (entries) {
+            entries.put(userId, new Entry(Collections.unmodifiableMap(new HashMap<>(data)), System.currentTimeMillis()));
+        }
+    }
+
+    // ✅ 2. Apply a change made on this node to the cached copy (if any)
+    public void update(String userId, Map<String, Object> changes) {
+        synchronized (entries) {
+            changed(userId);
+            Entry entry = entries.get(userId);
+            if (entry == null || entry.data() == null) return;
+            Map<String, Object> data = new HashMap<>(entry.data());
+            data.putAll(changes);
+            entries.put(userId, new Entry(Collections.unmodifiableMap(data), entry.loadedAt()));
+        }
+    }
+
+    @EventListener
+    public void onXpChanged(XpChangedEvent event) {
+        synchronized (entries) {
+            changed(event.getUserId());
+            if (event.getCategory() == null) return; // New users are put() by whoever created them
+            Entry entry = entries.get(event.getUserId());
+            if (entry == null || entry.data() == null) return;
+            Map<String, Object> data = new HashMap<>(entry.data());
+            data.put("xp", event.getXp());
+            Map<Object, Object> lastPlayed = data.get("lastPlayed") instanceof Map<?, ?> map ? new HashMap<>(map) : new HashMap<>();
+            lastPlayed.put(event.getCategory(), LocalDate.now().toString());
+            data.put("lastPlayed", lastPlayed);
+            entries.put(event.getUserId(), new Entry(Collections.unmodifiableMap(data), entry.loadedAt()));
+        }
+    }
+
+    public void evict(String userId) {
+        synchronized (entries) {
+            changed(userId);
+            entries.remove(userId);
+        }
+    }
+
+    // Called holding the entries lock
+    private void changed(String userId) {
+        versions.put(userId, stamps.incrementAndGet());
+    }
+
+    private boolean isExpired(Entry entry) {
+        long age = System.currentTimeMillis() - entry.loadedAt();
+        return age > (entry.data() != null ? ttlMs : negativeTtlMs);
+    }
+
+    private int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.demo.service;
+
+import com.google.cloud.firestore.*;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Streams the users collection a page at a time, ordered by document id and reading only the
+ * requested fields, so a full scan holds one page in memory however many users there are.
+ */
+@Component
+public class UserScanner {
+
+    private static final String COLLECTION_NAME = "users";
+    static final int PAGE_SIZE = 1000;
+
+    private final Firestore db;
+
+    public UserScanner(Firestore db) {
+        this.db = db;
+    }
+
+    // Returns the number of users visited
+    public long scan(Consumer<QueryDocumentSnapshot> consumer, String... fields) throws ExecutionException, InterruptedException {
+        long users = 0;
+        Query page = db.collection(COLLECTION_NAME).orderBy(FieldPath.documentId()).select(fields).limit(PAGE_SIZE);
+        while (true) {
+            List<QueryDocumentSnapshot> docs = page.get().get().getDocuments();
+            docs.forEach(consumer);
+            users += docs.size();
+            if (docs.size() < PAGE_SIZE) return users;
+            page = page.startAfter(docs.get(docs.size() - 1));
+        }
+    }
+}
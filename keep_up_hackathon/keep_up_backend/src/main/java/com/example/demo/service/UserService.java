@@ -1,12 +1,20 @@
 package com.example.demo.service;
 
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
 import com.google.cloud.firestore.*;
 import com.google.firebase.cloud.FirestoreClient;
 import com.example.demo.model.Toon;
+import com.example.demo.model.ToonPage;
 import com.example.demo.model.User;
+import com.example.demo.model.XpChangedEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
-import java.time.LocalDate;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 
@@ -14,96 +22,167 @@ import java.util.concurrent.ExecutionException;
 public class UserService {
 
     private static final String COLLECTION_NAME = "users";
+    private static final long NEW_USER_XP = 100;
+    private static final int MAX_BOOKMARK_PAGE_SIZE = 50;
+    private static final int BOOKMARK_SCAN_PAGE_SIZE = 50;
+    private static final int LEGACY_MIGRATION_BATCH = 200;
+    private static final int MAX_MIGRATED_USERS = 10_000;
+
+    private final XpWriteBehindBuffer xpBuffer;
+    private final RankIndex rankIndex;
+    private final LeaderboardEngine leaderboardEngine;
+    private final UserProfileCache profileCache;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ObjectMapper mapper;
+    private final NewsIndexingService newsIndexingService; // Hydrates bookmark references
+
+    // Users whose bookmarks this node has already checked for the old full-copy format; bounded LRU,
+    // a user who falls out is just checked again (one empty query)
+    private final LinkedHashMap<String, Boolean> migratedBookmarkUsers = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_MIGRATED_USERS;
+        }
+    };
+
+    public UserService(XpWriteBehindBuffer xpBuffer, RankIndex rankIndex, LeaderboardEngine leaderboardEngine,
+                       UserProfileCache profileCache, ApplicationEventPublisher eventPublisher, LlmJsonParser llmJsonParser,
+                       NewsIndexingService newsIndexingService) {
+        this.xpBuffer = xpBuffer;
+        this.rankIndex = rankIndex;
+        this.leaderboardEngine = leaderboardEngine;
+        this.profileCache = profileCache;
+        this.eventPublisher = eventPublisher;
+        this.mapper = llmJsonParser.mapper(); // Lenient about fields User doesn't have
+        this.newsIndexingService = newsIndexingService;
+    }
 
     public String createUser(String userId, String name) {
         try {
-            Firestore db = FirestoreClient.getFirestore();
-            DocumentReference userRef = db.collection(COLLECTION_NAME).document(userId);
-
-            if (userRef.get().get().exists()) return "User already exists";
-
-            Map<String, Object> user = new HashMap<>();
-            user.put("userId", userId);
-            user.put("name", name);
-            user.put("xp", 100);
-            user.put("streak", 1);
-            user.put("rank", 999);
-            // ✅ Initialize empty map for tracking categories
-            user.put("lastPlayed", new HashMap<String, String>());
-
-            userRef.set(user);
-            return "User Created";
+            return createIfAbsent(userId, name) != null ? "User Created" : "User already exists";
         } catch (Exception e) {
             e.printStackTrace();
             return "Error";
         }
     }
 
-    public String updateUserName(String userId, String newName) throws ExecutionException, InterruptedException {
-        FirestoreClient.getFirestore().collection(COLLECTION_NAME).document(userId).update("name", newName);
-        return "Name Updated";
-    }
+    // Atomic create-if-absent: create() fails with ALREADY_EXISTS instead of overwriting. Returns the new
+    // document's data, or null if the user already existed
+    private Map<String, Object> createIfAbsent(String userId, String name) throws ExecutionException, InterruptedException {
+        DocumentReference userRef = FirestoreClient.getFirestore().collection(COLLECTION_NAME).document(userId);
 
-    public Map<String, Object> getUserProfile(String userId) throws ExecutionException, InterruptedException {
-        Firestore db = FirestoreClient.getFirestore();
-        DocumentSnapshot doc = db.collection(COLLECTION_NAME).document(userId).get().get();
+        Map<String, Object> user = new HashMap<>();
+        user.put("userId", userId);
+        user.put("name", name);
+        user.put("xp", NEW_USER_XP);
+        user.put("streak", 1);
+        user.put("rank", 999);
+        // ✅ Initialize empty map for tracking categories
+        user.put("lastPlayed", new HashMap<String, String>());
 
-        if (!doc.exists()) {
-            createUser(userId, "Reader");
-            return getUserProfile(userId);
+        try {
+            userRef.create(user).get();
+        } catch (ExecutionException e) {
+            if (isAlreadyExists(e)) return null;
+            throw e;
         }
 
-        Map<String, Object> userData = doc.getData();
-        long xp = (long) userData.getOrDefault("xp", 0L);
-        userData.put("rank", getRank(xp));
-        return userData;
+        profileCache.put(userId, user);
+        eventPublisher.publishEvent(new XpChangedEvent(userId, name, null, null, null, null, NEW_USER_XP));
+        return user;
     }
 
-    public User getUserObject(String userId) throws ExecutionException, InterruptedException {
-        DocumentSnapshot doc = FirestoreClient.getFirestore().collection(COLLECTION_NAME).document(userId).get().get();
-        return doc.exists() ? doc.toObject(User.class) : null;
+    // Read the status code from the gax/Firestore/gRPC exception in the cause chain, never the message text
+    private static boolean isAlreadyExists(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof ApiException api) return api.getStatusCode().getCode() == StatusCode.Code.ALREADY_EXISTS;
+            if (t instanceof FirestoreException fe && fe.getStatus() != null) {
+                return fe.getStatus().getCode() == Status.Code.ALREADY_EXISTS;
+            }
+            if (t instanceof StatusRuntimeException grpc) return grpc.getStatus().getCode() == Status.Code.ALREADY_EXISTS;
+        }
+        return false;
     }
 
-    // ✅ UPDATED XP LOCK LOGIC (Per Category)
-    public String addXp(String userId, int points, String category) throws ExecutionException, InterruptedException {
-        Firestore db = FirestoreClient.getFirestore();
-        DocumentReference userRef = db.collection(COLLECTION_NAME).document(userId);
-
-        // 1. Fetch current user data
-        DocumentSnapshot doc = userRef.get().get();
-        if (!doc.exists()) return "User not found";
-
-        String today = LocalDate.now().toString();
+    public String updateUserName(String userId, String newName) throws ExecutionException, InterruptedException {
+        FirestoreClient.getFirestore().collection(COLLECTION_NAME).document(userId).update("name", newName);
+        xpBuffer.evict(userId);
+        profileCache.update(userId, Map.of("name", newName));
+        leaderboardEngine.rename(userId, newName);
+        return "Name Updated";
+    }
 
-        // 2. Get the "lastPlayed" map (handle nulls safely)
-        Map<String, String> lastPlayed = (Map<String, String>) doc.get("lastPlayed");
-        if (lastPlayed == null) lastPlayed = new HashMap<>();
+    // Cached user document with this node's unflushed XP applied, or null if there is none
+    private Map<String, Object> getUserData(String userId) throws Exception {
+        return profileCache.get(userId, () -> xpBuffer.readWithUnflushed(userId, () -> {
+            DocumentSnapshot doc = FirestoreClient.getFirestore().collection(COLLECTION_NAME).document(userId).get().get();
+            return doc.exists() ? doc.getData() : null;
+        }));
+    }
 
-        // 3. CHECK: Did they play THIS specific category today?
-        String lastDateForCategory = lastPlayed.getOrDefault(category, "");
+    public Map<String, Object> getUserProfile(String userId) throws Exception {
+        Map<String, Object> userData = getUserData(userId);
 
-        if (today.equals(lastDateForCategory)) {
-            System.out.println("⛔ XP Blocked: " + category + " already played today by " + userId);
-            return "Daily limit reached for " + category;
+        if (userData == null) {
+            userData = createIfAbsent(userId, "Reader");
+            if (userData == null) {
+                // Created concurrently by another request: read it once, straight from Firestore
+                profileCache.evict(userId);
+                userData = getUserData(userId);
+                if (userData == null) throw new IllegalStateException("User " + userId + " exists but could not be read");
+            }
         }
 
-        // 4. SUCCESS: Add points AND lock this specific category
-        lastPlayed.put(category, today); // Update the map
+        Map<String, Object> profile = new HashMap<>(userData);
+        profile.remove("xpFlush"); // Write-behind bookkeeping, not part of the profile
+        Object xp = profile.getOrDefault("xp", 0L);
+        profile.put("rank", getRank(xp instanceof Number n ? n.longValue() : 0));
+        return profile;
+    }
 
-        userRef.update("xp", FieldValue.increment(points));
-        userRef.update("lastPlayed", lastPlayed); // Save the map back to DB
+    public User getUserObject(String userId) throws Exception {
+        Map<String, Object> userData = getUserData(userId);
+        return userData != null ? mapper.convertValue(userData, User.class) : null;
+    }
+
+    // Outcome of one XP award; `xp` is the user's total afterwards
+    public record XpAward(boolean userFound, boolean awarded, long xp) {}
 
+    // ✅ UPDATED XP LOCK LOGIC (Per Category)
+    public String addXp(String userId, int points, String category) throws ExecutionException, InterruptedException {
+        XpAward award = awardXp(userId, points, category);
+        if (!award.userFound()) return "User not found";
+        if (!award.awarded()) return "Daily limit reached for " + category;
         return "XP Added";
     }
 
+    // The lock check and XP increment go through the write-behind buffer: no read for recently seen users,
+    // and the write lands with other awards as one update per user
+    public XpAward awardXp(String userId, int points, String category) throws ExecutionException, InterruptedException {
+        return xpBuffer.awardXp(userId, points, category);
+    }
+
     // --- Leaderboard & Bookmarks (Standard) ---
 
+    // In-memory order statistic once the rank index has loaded; count() aggregation until then
     private int getRank(long myXp) throws ExecutionException, InterruptedException {
+        if (rankIndex.isReady()) return rankIndex.rankOf(myXp);
+
         AggregateQuerySnapshot snapshot = FirestoreClient.getFirestore().collection(COLLECTION_NAME)
                 .whereGreaterThan("xp", myXp).count().get().get();
         return (int) snapshot.getCount() + 1;
     }
 
+    // Pre-serialized board once the engine has loaded; league/cohort boards need it (no per-request queries)
+    public byte[] getLeaderboardJson(String league, String cohort) {
+        if (league != null && cohort != null) throw new IllegalArgumentException("Pass either league or cohort, not both");
+        if (!leaderboardEngine.isReady()) return null;
+        if (league != null) return leaderboardEngine.leagueBoard(league);
+        if (cohort != null) return leaderboardEngine.cohortBoard(cohort);
+        return leaderboardEngine.globalBoard();
+    }
+
+    // Fallback for the global board while the engine is loading
     public List<Map<String, Object>> getGlobalLeaderboard() throws ExecutionException, InterruptedException {
         List<QueryDocumentSnapshot> docs = FirestoreClient.getFirestore().collection(COLLECTION_NAME)
                 .orderBy("xp", Query.Direction.DESCENDING).limit(10).get().get().getDocuments();
@@ -120,24 +199,109 @@ public class UserService {
         return leaderboard;
     }
 
+    // Bookmarks are references: users/{id}/bookmarks/{toonId} = {toonId, savedAt}; the story itself stays in toon_index
     public String addBookmark(String userId, Toon newsItem) {
-        FirestoreClient.getFirestore().collection(COLLECTION_NAME).document(userId)
-                .collection("bookmarks").document(newsItem.getId()).set(newsItem);
+        Map<String, Object> ref = new HashMap<>();
+        ref.put("toonId", newsItem.getId());
+        ref.put("savedAt", System.currentTimeMillis());
+        bookmarks(userId).document(newsItem.getId()).set(ref);
         return "Saved";
     }
 
     public String removeBookmark(String userId, String newsId) {
-        FirestoreClient.getFirestore().collection(COLLECTION_NAME).document(userId)
-                .collection("bookmarks").document(newsId).delete();
+        bookmarks(userId).document(newsId).delete();
         return "Removed";
     }
 
+    // Everything, newest first (the shape the app uses), read a page at a time
     public List<Toon> getBookmarks(String userId) throws Exception {
         List<Toon> list = new ArrayList<>();
-        List<QueryDocumentSnapshot> docs = FirestoreClient.getFirestore()
-                .collection(COLLECTION_NAME).document(userId)
-                .collection("bookmarks").get().get().getDocuments();
-        for (QueryDocumentSnapshot d : docs) list.add(d.toObject(Toon.class));
+        String pageToken = null;
+        do {
+            ToonPage page = getBookmarkPage(userId, BOOKMARK_SCAN_PAGE_SIZE, pageToken);
+            list.addAll(page.getItems());
+            pageToken = page.getNextPageToken();
+        } while (pageToken != null);
         return list;
     }
-}
\ No newline at end of file
+
+    // ✅ Keyset pagination on (savedAt, toonId) desc; each page is one query plus at most one getAll
+    public ToonPage getBookmarkPage(String userId, int pageSize, String pageToken) throws ExecutionException, InterruptedException {
+        int size = Math.max(1, Math.min(pageSize, MAX_BOOKMARK_PAGE_SIZE));
+        if (pageToken == null || pageToken.isEmpty()) migrateLegacyBookmarks(userId);
+
+        Query query = bookmarks(userId)
+                .orderBy("savedAt", Query.Direction.DESCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING);
+        if (pageToken != null && !pageToken.isEmpty()) {
+            String[] cursor = decodeBookmarkToken(pageToken);
+            query = query.startAfter(Long.parseLong(cursor[0]), cursor[1]);
+        }
+
+        // Fetch one extra row to learn whether another page exists
+        List<QueryDocumentSnapshot> docs = query.limit(size + 1).get().get().getDocuments();
+        List<QueryDocumentSnapshot> refs = docs.subList(0, Math.min(size, docs.size()));
+
+        List<String> ids = new ArrayList<>(refs.size());
+        for (QueryDocumentSnapshot ref : refs) ids.add(ref.getId());
+        List<Toon> items = newsIndexingService.getToonsByIds(ids);
+
+        String next = null;
+        if (docs.size() > size) {
+            QueryDocumentSnapshot last = refs.get(refs.size() - 1);
+            next = encodeBookmarkToken(last.getLong("savedAt"), last.getId());
+        }
+        return new ToonPage(items, next);
+    }
+
+    // Bookmarks saved before references were full Toon copies (they have a title; references don't).
+    // Rewrite them once per user per node so they show up in savedAt order and stop carrying the payload
+    private void migrateLegacyBookmarks(String userId) throws ExecutionException, InterruptedException {
+        synchronized (migratedBookmarkUsers) {
+            if (migratedBookmarkUsers.get(userId) != null) return;
+        }
+
+        List<QueryDocumentSnapshot> legacy;
+        do {
+            legacy = bookmarks(userId).orderBy("title").limit(LEGACY_MIGRATION_BATCH).get().get().getDocuments();
+            if (legacy.isEmpty()) break;
+
+            WriteBatch batch = FirestoreClient.getFirestore().batch();
+            for (QueryDocumentSnapshot doc : legacy) {
+                Long timestamp = doc.getLong("timestamp");
+                Map<String, Object> ref = new HashMap<>();
+                ref.put("toonId", doc.getId());
+                ref.put("savedAt", timestamp != null && timestamp > 0 ? timestamp : System.currentTimeMillis());
+                batch.set(doc.getReference(), ref);
+            }
+            batch.commit().get();
+            System.out.println("🔖 Migrated " + legacy.size() + " legacy bookmarks for " + userId);
+        } while (legacy.size() == LEGACY_MIGRATION_BATCH);
+
+        synchronized (migratedBookmarkUsers) {
+            migratedBookmarkUsers.put(userId, Boolean.TRUE);
+        }
+    }
+
+    private CollectionReference bookmarks(String userId) {
+        return FirestoreClient.getFirestore().collection(COLLECTION_NAME).document(userId).collection("bookmarks");
+    }
+
+    private static String encodeBookmarkToken(Long savedAt, String toonId) {
+        String raw = (savedAt != null ? savedAt : 0) + "|" + toonId;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Returns [savedAt, toonId]
+    private static String[] decodeBookmarkToken(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\\|", 2);
+            if (parts.length != 2) throw new IllegalArgumentException("Malformed page token");
+            Long.parseLong(parts[0]);
+            return parts;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page token", e);
+        }
+    }
+}
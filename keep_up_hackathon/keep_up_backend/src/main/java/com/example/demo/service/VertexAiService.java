@@ -4,16 +4,49 @@ import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.vertexai.gemini.VertexAiGeminiChatOptions;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Locale;
 
 @Service
 public class VertexAiService {
 
     private final ChatModel chatModel;
+    private final LlmJsonParser llmJsonParser;
+    private final LlmResponseCache responseCache;
+    private final LlmExecutor llmExecutor;
+    private final LlmMetrics llmMetrics;
+
+    // Concurrency cap, per-attempt timeout, attempts and hedging for each kind of call.
+    // Pipeline operations must finish inside their stage deadline (research 120s, format 90s, quiz 60s,
+    // category quiz 90s): attempts × (timeout + 5s queue wait) plus the first backoff stays below it.
+    private enum Operation {
+        RESEARCH("research", new LlmExecutor.Policy(2, Duration.ofSeconds(50), 2, null)),
+        FORMAT("format", new LlmExecutor.Policy(4, Duration.ofSeconds(35), 2, null)),
+        QUIZ("quiz", new LlmExecutor.Policy(4, Duration.ofSeconds(22), 2, null)),
+        CATEGORY_QUIZ("categoryQuiz", new LlmExecutor.Policy(4, Duration.ofSeconds(35), 2, null)),
+        KEYWORDS("keywords", new LlmExecutor.Policy(8, Duration.ofSeconds(8), 3, null)),
+        CHAT("chat", new LlmExecutor.Policy(8, Duration.ofSeconds(30), 2, Duration.ofSeconds(4))),
+        CATCHUP("catchup", new LlmExecutor.Policy(2, Duration.ofSeconds(60), 2, null));
+
+        final String id;
+        final LlmExecutor.Policy policy;
+
+        Operation(String id, LlmExecutor.Policy policy) {
+            this.id = id;
+            this.policy = policy;
+        }
+    }
 
-    public VertexAiService(ChatModel chatModel) {
+    public VertexAiService(ChatModel chatModel, LlmJsonParser llmJsonParser, LlmResponseCache responseCache,
+                           LlmExecutor llmExecutor, LlmMetrics llmMetrics) {
         this.chatModel = chatModel;
+        this.llmJsonParser = llmJsonParser;
+        this.responseCache = responseCache;
+        this.llmExecutor = llmExecutor;
+        this.llmMetrics = llmMetrics;
     }
 
     // --- PHASE 1: RESEARCH ---
@@ -34,12 +67,11 @@ public class VertexAiService {
         - DO NOT pull full articles.
         """.formatted(targetDate, region, targetDate);
 
-        return chatModel.call(new Prompt(prompt,
+        return call(Operation.RESEARCH, prompt,
                 VertexAiGeminiChatOptions.builder()
                         .model("gemini-2.5-flash")
                         .googleSearchRetrieval(true)
-                        .build()
-        )).getResult().getOutput().getText();
+                        .build());
     }
 
     // --- PHASE 2: FORMATTER ---
@@ -65,9 +97,8 @@ public class VertexAiService {
             INPUT FACTS:
             """ + rawFacts;
 
-        return cleanJson(chatModel.call(new Prompt(prompt,
-                VertexAiGeminiChatOptions.builder().model("gemini-2.5-flash").temperature(0.2).build()
-        )).getResult().getOutput().getText());
+        return cleanJson(call(Operation.FORMAT, prompt,
+                VertexAiGeminiChatOptions.builder().model("gemini-2.5-flash").temperature(0.2).build()));
     }
 
     // --- PHASE 3: MAIN DAILY QUIZ ---
@@ -88,9 +119,8 @@ public class VertexAiService {
             NEWS FACTS:
             """ + rawFacts;
 
-        return cleanJson(chatModel.call(new Prompt(prompt,
-                VertexAiGeminiChatOptions.builder().model("gemini-2.5-flash").temperature(0.4).build()
-        )).getResult().getOutput().getText());
+        return cleanJson(call(Operation.QUIZ, prompt,
+                VertexAiGeminiChatOptions.builder().model("gemini-2.5-flash").temperature(0.4).build()));
     }
 
     // --- PHASE 4: CATEGORY-WISE QUIZ ---
@@ -116,30 +146,48 @@ public class VertexAiService {
         NEWS CONTEXT:
         """ + dailyNewsContext;
 
-        return cleanJson(chatModel.call(new Prompt(prompt,
-                VertexAiGeminiChatOptions.builder().model("gemini-2.5-flash").temperature(0.4).build()
-        )).getResult().getOutput().getText());
+        return cleanJson(call(Operation.CATEGORY_QUIZ, prompt,
+                VertexAiGeminiChatOptions.builder().model("gemini-2.5-flash").temperature(0.4).build()));
     }
 
     // --- KEYWORD EXTRACTION ---
     public String extractSearchKeywords(String userQuestion) {
-        return chatModel.call(new Prompt("Extract 1-3 search keywords from: " + userQuestion,
-                VertexAiGeminiChatOptions.builder().model("gemini-2.5-flash").temperature(0.0).build()
-        )).getResult().getOutput().getText().trim();
+        // Case and spacing don't change the keywords, so normalising them lets repeat questions hit the cache
+        String question = userQuestion.strip().toLowerCase(Locale.ROOT);
+        return call(Operation.KEYWORDS, "Extract 1-3 search keywords from: " + question,
+                VertexAiGeminiChatOptions.builder().model("gemini-2.5-flash").temperature(0.0).build()).trim();
     }
 
     // --- SMART ROUTING CHAT ---
     public String chatWithSmartRouting(String userQuestion, List<String> localMatches) {
-        boolean hasLocalNews = !localMatches.isEmpty();
-        String context = hasLocalNews ? "LOCAL NEWS:\n" + String.join("\n", localMatches) : "No local match.";
+        return call(Operation.CHAT, routingPrompt(userQuestion, localMatches), routingOptions(localMatches));
+    }
 
-        return chatModel.call(new Prompt("Context: " + context + "\nUser Question: " + userQuestion,
-                VertexAiGeminiChatOptions.builder()
-                        .model("gemini-2.5-flash")
-                        .temperature(0.3)
-                        .googleSearchRetrieval(!hasLocalNews)
-                        .build()
-        )).getResult().getOutput().getText();
+    // Same routing, but the answer arrives as text chunks while Gemini generates it
+    public Flux<String> streamChatWithSmartRouting(String userQuestion, List<String> localMatches) {
+        VertexAiGeminiChatOptions options = routingOptions(localMatches);
+        Prompt prompt = new Prompt(routingPrompt(userQuestion, localMatches), options);
+        boolean grounded = Boolean.TRUE.equals(options.getGoogleSearchRetrieval());
+        return llmExecutor.stream(Operation.CHAT.id, Operation.CHAT.policy,
+                        () -> llmMetrics.recordStream(Operation.CHAT.id, grounded, chatModel.stream(prompt)))
+                // Chunks carrying only a finish reason or grounding metadata have no text; mapNotNull skips them
+                .mapNotNull(response -> response.getResult() == null || response.getResult().getOutput() == null
+                        ? null : response.getResult().getOutput().getText())
+                .filter(text -> !text.isEmpty());
+    }
+
+    private String routingPrompt(String userQuestion, List<String> localMatches) {
+        String context = !localMatches.isEmpty() ? "LOCAL NEWS:\n" + String.join("\n", localMatches) : "No local match.";
+        return "Context: " + context + "\nUser Question: " + userQuestion;
+    }
+
+    // No local match -> let Gemini ground the answer with Google Search
+    private VertexAiGeminiChatOptions routingOptions(List<String> localMatches) {
+        return VertexAiGeminiChatOptions.builder()
+                .model("gemini-2.5-flash")
+                .temperature(0.3)
+                .googleSearchRetrieval(localMatches.isEmpty())
+                .build();
     }
 
     // --- ✅ PHASE 5: CATCH UP CONTENT (RESTORED THIS METHOD) ---
@@ -161,13 +209,31 @@ public class VertexAiService {
             INPUT:
             """ + databaseNews;
 
-        return cleanJson(chatModel.call(new Prompt(prompt,
-                VertexAiGeminiChatOptions.builder().model("gemini-2.5-flash").temperature(0.5).build()
-        )).getResult().getOutput().getText());
+        return cleanJson(call(Operation.CATCHUP, prompt,
+                VertexAiGeminiChatOptions.builder().model("gemini-2.5-flash").temperature(0.5).build()));
+    }
+
+    // Every model call goes through here: response cache (deterministic calls only), then the executor
+    private String call(Operation operation, String prompt, VertexAiGeminiChatOptions options) {
+        String key = LlmResponseCache.keyFor(options.getModel(), options.getTemperature(), prompt);
+        boolean grounded = Boolean.TRUE.equals(options.getGoogleSearchRetrieval());
+        LlmResponseCache.Loader execute = () -> llmExecutor.execute(operation.id, grounded ? key + ":search" : key,
+                operation.policy, () -> invoke(operation, prompt, options));
+
+        if (!responseCache.isEligible(options.getTemperature(), options.getGoogleSearchRetrieval())) {
+            return execute.load();
+        }
+        return responseCache.get(key, execute);
+    }
+
+    private String invoke(Operation operation, String prompt, VertexAiGeminiChatOptions options) {
+        boolean grounded = Boolean.TRUE.equals(options.getGoogleSearchRetrieval());
+        return llmMetrics.record(operation.id, grounded, () -> chatModel.call(new Prompt(prompt, options)))
+                .getResult().getOutput().getText();
     }
 
-    // Helper to remove Markdown
+    // Helper to remove Markdown fences and any prose around the JSON
     private String cleanJson(String text) {
-        return text.replace("```json", "").replace("```", "").trim();
+        return llmJsonParser.extractJsonText(text);
     }
 }
\ No newline at end of file
@@ -0,0 +1,423 @@
+package com.example.demo.service;
+
+import com.example.demo.model.XpChangedEvent;
+import com.google.cloud.firestore.*;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind path for XP awards.
+ * The per-category daily lock is checked against a short-lived in-memory copy of each user's XP and
+ * lastPlayed map, and accepted awards are coalesced per user in a striped buffer. A flush writes one
+ * update per user (FieldValue.increment on xp plus dotted lastPlayed.<category> paths) and commits up
+ * to 500 users per WriteBatch, so a burst of quiz completions costs a handful of commits.
+ * The first award of a day also moves lastActiveDate to today and keeps the day before it in
+ * prevActiveDate, so the nightly rollover can still see yesterday after an early-morning quiz.
+ * Awards are acknowledged before they're written: a flush runs every second and on shutdown. Every
+ * write also stores a flush id under xpFlush.<node-id>. When a commit fails or times out it may still
+ * have landed, so it is never blindly replayed. Each user in it is resolved with a transaction that
+ * applies the award only if the document doesn't carry that flush id yet. Until then the user's
+ * newer awards wait in pending, so one flush id per user and node is open at a time.
+ * The lock check is per node; the state TTL bounds how long another node's award can go unnoticed.
+ * A user is never re-read while one of their commits is in flight, and a read that overlapped a
+ * settled commit is discarded, so a reload can't count the same points twice (or miss them).
+ * Profile reads go through readWithUnflushed() under the same rules, so they see awards not yet flushed.
+ */
+@Component
+public class XpWriteBehindBuffer {
+
+    private static final String COLLECTION_NAME = "users";
+    private static final int STRIPES = 16;
+    private static final int MAX_BATCH_SIZE = 500;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long COMMIT_TIMEOUT_SECONDS = 30;
+
+    private final Firestore db;
+    private final ApplicationEventPublisher eventPublisher;
+    private final long stateTtlMs;
+    private final int maxStatesPerStripe;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final Counter awarded;
+    private final Counter blocked;
+    private final Counter userWrites;
+    private final Counter commits;
+    private final Counter dropped;
+
+    // This node's slot in the user document's xpFlush map
+    private final FieldPath flushField;
+
+    // What this node believes about a user: enough to answer the lock check (and describe the change) without a read
+    private static final class UserState {
+        long xp;
+        final Map<String, String> lastPlayed;
+        String lastActiveDate;
+        final String name, league, cohortId;
+        final long loadedAtMs;
+
+        UserState(long xp, Map<String, String> lastPlayed, String lastActiveDate, String name, String league, String cohortId,
+                  long loadedAtMs) {
+            this.xp = xp;
+            this.lastPlayed = lastPlayed;
+            this.lastActiveDate = lastActiveDate;
+            this.name = name;
+            this.league = league;
+            this.cohortId = cohortId;
+            this.loadedAtMs = loadedAtMs;
+        }
+    }
+
+    // Awards accepted for a user since the last flush
+    private static final class Pending {
+        long points;
+        final Map<String, String> locks = new HashMap<>(); // category -> date
+        String activeDate, prevActiveDate; // set when an award starts a new active day
+        String flushId; // assigned when drained; kept across retries so a retry can tell if it already landed
+        int attempts;
+    }
+
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final LinkedHashMap<String, UserState> states = new LinkedHashMap<>(64, 0.75f, true); // LRU order
+        final Map<String, Pending> pending = new HashMap<>();
+        final Map<String, Pending> flushing = new HashMap<>(); // drained, not yet known to have landed
+        final Condition settled = lock.newCondition();
+        long settles; // bumped whenever a flushing entry is settled, so a read can tell it raced one
+    }
+
+    public XpWriteBehindBuffer(Firestore db, ApplicationEventPublisher eventPublisher, MeterRegistry meterRegistry,
+                               @Value("${keepup.xp.state-ttl-seconds:60}") long stateTtlSeconds,
+                               @Value("${keepup.xp.max-cached-users:20000}") int maxCachedUsers,
+                               @Value("${keepup.xp.node-id:${HOSTNAME:local}}") String nodeId) {
+        this.db = db;
+        this.flushField = FieldPath.of("xpFlush", nodeId);
+        this.eventPublisher = eventPublisher;
+        this.stateTtlMs = TimeUnit.SECONDS.toMillis(stateTtlSeconds);
+        this.maxStatesPerStripe = Math.max(1, maxCachedUsers / STRIPES);
+        for (int i = 0; i < STRIPES; i++) stripes[i] = new Stripe();
+
+        this.awarded = meterRegistry.counter("keepup.xp.events", "outcome", "awarded");
+        this.blocked = meterRegistry.counter("keepup.xp.events", "outcome", "blocked");
+        this.userWrites = meterRegistry.counter("keepup.xp.writes");
+        this.commits = meterRegistry.counter("keepup.xp.commits");
+        this.dropped = meterRegistry.counter("keepup.xp.dropped");
+        meterRegistry.gauge("keepup.xp.pending", this, XpWriteBehindBuffer::pendingUsers);
+    }
+
+    // ✅ 1. Accept or block an award; only a cold (or stale) user costs a read
+    public UserService.XpAward awardXp(String userId, int points, String category) throws ExecutionException, InterruptedException {
+        String today = LocalDate.now().toString();
+        Stripe stripe = stripe(userId);
+
+        UserState loaded = null;
+        long loadedAtSettles = 0;
+        while (true) {
+            XpChangedEvent change = null;
+            stripe.lock.lock();
+            try {
+                UserState state = stripe.states.get(userId);
+                if ((state == null || isExpired(state)) && loaded != null) {
+                    if (stripe.flushing.containsKey(userId) || stripe.settles != loadedAtSettles) {
+                        // A commit was in flight or settled during the read: it may or may not include it
+                        loaded = null;
+                    } else {
+                        // Overlay awards this node accepted but Firestore doesn't have yet
+                        state = withUnflushed(stripe, userId, loaded);
+                        cache(stripe, userId, state);
+                    }
+                }
+
+                if (state == null || isExpired(state)) {
+                    if (stripe.flushing.containsKey(userId)) {
+                        // Wait for the user's in-flight commit to settle before reading the document
+                        stripe.settled.await(COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                        continue;
+                    }
+                    loadedAtSettles = stripe.settles;
+                } else {
+                    // 2. CHECK: Did they play THIS specific category today?
+                    if (today.equals(state.lastPlayed.get(category))) {
+                        blocked.increment();
+                        return new UserService.XpAward(true, false, state.xp);
+                    }
+
+                    // 3. SUCCESS: lock the category in memory and queue the points
+                    long previousXp = state.xp;
+                    state.xp += points;
+                    state.lastPlayed.put(category, today);
+                    Pending pending = stripe.pending.computeIfAbsent(userId, k -> new Pending());
+                    pending.points += points;
+                    pending.locks.put(category, today);
+                    if (!today.equals(state.lastActiveDate)) {
+                        pending.prevActiveDate = state.lastActiveDate;
+                        pending.activeDate = today;
+                        state.lastActiveDate = today;
+                    }
+                    change = new XpChangedEvent(userId, state.name, state.league, state.cohortId, category, previousXp, state.xp);
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+
+            if (change != null) {
+                awarded.increment();
+                eventPublisher.publishEvent(change);
+                return new UserService.XpAward(true, true, change.getXp());
+            }
+
+            // Read outside the stripe lock so other users aren't held up; the next pass installs it
+            loaded = load(userId);
+            if (loaded == null) return new UserService.XpAward(false, false, 0);
+        }
+    }
+
+    private UserState load(String userId) throws ExecutionException, InterruptedException {
+        DocumentSnapshot doc = db.collection(COLLECTION_NAME).document(userId).get().get();
+        if (!doc.exists()) return null;
+
+        Long xp = doc.getLong("xp");
+        Map<String, String> lastPlayed = new HashMap<>();
+        if (doc.get("lastPlayed") instanceof Map<?, ?> map) {
+            map.forEach((k, v) -> {
+                if (k != null && v != null) lastPlayed.put(k.toString(), v.toString());
+            });
+        }
+        // Users written before lastActiveDate existed: their latest category date is the same thing
+        String lastActiveDate = doc.getString("lastActiveDate");
+        if (lastActiveDate == null) lastActiveDate = lastPlayed.values().stream().max(Comparator.naturalOrder()).orElse(null);
+        return new UserState(xp != null ? xp : 0, lastPlayed, lastActiveDate, doc.getString("name"), doc.getString("league"),
+                doc.getString("cohortId"), System.currentTimeMillis());
+    }
+
+    // Only called with no commit in flight for the user, so just the not-yet-drained awards are missing
+    private static UserState withUnflushed(Stripe stripe, String userId, UserState loaded) {
+        Pending unflushed = stripe.pending.get(userId);
+        if (unflushed != null) {
+            loaded.xp += unflushed.points;
+            loaded.lastPlayed.putAll(unflushed.locks);
+            if (unflushed.activeDate != null) loaded.lastActiveDate = unflushed.activeDate;
+        }
+        return loaded;
+    }
+
+    // Reads a user document (null = none) and applies this node's not-yet-flushed awards on top, so a
+    // profile read right after a quiz doesn't show the old XP. Like an award, it waits out a commit in
+    // flight for the user and reads again if one settled meanwhile.
+    public Map<String, Object> readWithUnflushed(String userId, Callable<Map<String, Object>> read) throws Exception {
+        Stripe stripe = stripe(userId);
+        while (true) {
+            long readAtSettles;
+            stripe.lock.lock();
+            try {
+                if (stripe.flushing.containsKey(userId)) {
+                    stripe.settled.await(COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    continue;
+                }
+                readAtSettles = stripe.settles;
+            } finally {
+                stripe.lock.unlock();
+            }
+
+            Map<String, Object> data = read.call();
+
+            stripe.lock.lock();
+            try {
+                if (stripe.flushing.containsKey(userId) || stripe.settles != readAtSettles) continue;
+                Pending unflushed = stripe.pending.get(userId);
+                if (data == null || unflushed == null) return data;
+
+                Map<String, Object> merged = new HashMap<>(data);
+                long xp = data.get("xp") instanceof Number n ? n.longValue() : 0;
+                merged.put("xp", xp + unflushed.points);
+                Map<Object, Object> lastPlayed = data.get("lastPlayed") instanceof Map<?, ?> map ? new HashMap<>(map) : new HashMap<>();
+                lastPlayed.putAll(unflushed.locks);
+                merged.put("lastPlayed", lastPlayed);
+                if (unflushed.activeDate != null) {
+                    merged.put("lastActiveDate", unflushed.activeDate);
+                    if (unflushed.prevActiveDate != null) merged.put("prevActiveDate", unflushed.prevActiveDate);
+                }
+                return merged;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    private void cache(Stripe stripe, String userId, UserState state) {
+        stripe.states.put(userId, state);
+        if (stripe.states.size() > maxStatesPerStripe) {
+            Iterator<String> eldest = stripe.states.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    private boolean isExpired(UserState state) {
+        return System.currentTimeMillis() - state.loadedAtMs > stateTtlMs;
+    }
+
+    // ✅ 4. Flush: resolve earlier writes with an unknown outcome, then drain every stripe and write
+    // one update per user, up to 500 users per atomic batch
+    @Scheduled(fixedDelayString = "${keepup.xp.flush-interval-ms:1000}")
+    public synchronized void flush() {
+        Map<String, Pending> unresolved = new LinkedHashMap<>();
+        Map<String, Pending> drained = new LinkedHashMap<>();
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                unresolved.putAll(stripe.flushing);
+                Iterator<Map.Entry<String, Pending>> queued = stripe.pending.entrySet().iterator();
+                while (queued.hasNext()) {
+                    Map.Entry<String, Pending> entry = queued.next();
+                    if (stripe.flushing.containsKey(entry.getKey())) continue; // Waits for the earlier write
+                    entry.getValue().flushId = UUID.randomUUID().toString();
+                    stripe.flushing.put(entry.getKey(), entry.getValue());
+                    drained.put(entry.getKey(), entry.getValue());
+                    queued.remove();
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        unresolved.forEach((userId, pending) -> settle(userId, pending, !applyOnce(userId, pending)));
+
+        List<String> userIds = new ArrayList<>(drained.keySet());
+        for (int from = 0; from < userIds.size(); from += MAX_BATCH_SIZE) {
+            List<String> chunk = userIds.subList(from, Math.min(userIds.size(), from + MAX_BATCH_SIZE));
+            boolean committed = commit(chunk, drained);
+            for (String userId : chunk) {
+                // A failed batch (a timeout, UNAVAILABLE, one deleted user...) may or may not have landed
+                settle(userId, drained.get(userId), !committed && !applyOnce(userId, drained.get(userId)));
+            }
+        }
+    }
+
+    private boolean commit(List<String> userIds, Map<String, Pending> drained) {
+        try {
+            WriteBatch batch = db.batch();
+            for (String userId : userIds) {
+                Pending pending = drained.get(userId);
+                batch.update(db.collection(COLLECTION_NAME).document(userId),
+                        FieldPath.of("xp"), FieldValue.increment(pending.points), changes(pending));
+            }
+            batch.commit().get(COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            commits.increment();
+            userWrites.increment(userIds.size());
+            return true;
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            System.err.println("⚠️ XP batch of " + userIds.size() + " failed (" + e.getMessage() + "), resolving users one by one");
+            return false;
+        }
+    }
+
+    // ✅ 5. Idempotent write for one user: a transaction that applies the award unless the document
+    // already carries its flush id, so it's safe to repeat after any failure
+    private boolean applyOnce(String userId, Pending pending) {
+        DocumentReference ref = db.collection(COLLECTION_NAME).document(userId);
+        try {
+            boolean alreadyApplied = db.runTransaction(tx -> {
+                DocumentSnapshot doc = tx.get(ref).get();
+                if (pending.flushId.equals(doc.get(flushField))) return true;
+                tx.update(ref, FieldPath.of("xp"), FieldValue.increment(pending.points), changes(pending));
+                return false;
+            }).get(COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (!alreadyApplied) {
+                commits.increment();
+                userWrites.increment();
+            }
+            return true;
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            System.err.println("❌ XP write failed for " + userId + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // (field, value) pairs written next to the xp increment
+    private Object[] changes(Pending pending) {
+        List<Object> more = new ArrayList<>();
+        pending.locks.forEach((category, date) -> {
+            more.add(FieldPath.of("lastPlayed", category));
+            more.add(date);
+        });
+        if (pending.activeDate != null) {
+            more.add(FieldPath.of("lastActiveDate"));
+            more.add(pending.activeDate);
+            if (pending.prevActiveDate != null) {
+                more.add(FieldPath.of("prevActiveDate"));
+                more.add(pending.prevActiveDate);
+            }
+        }
+        more.add(flushField);
+        more.add(pending.flushId);
+        return more.toArray();
+    }
+
+    // Landed writes leave the flushing set; failed ones stay in it, and the next flush resolves them by flush id.
+    // Settling wakes awards waiting to re-read the user, and invalidates reads that ran across the commit.
+    private void settle(String userId, Pending written, boolean failed) {
+        Stripe stripe = stripe(userId);
+        stripe.lock.lock();
+        try {
+            if (failed && ++written.attempts < MAX_ATTEMPTS) return;
+            if (failed) {
+                dropped.increment();
+                stripe.states.remove(userId); // Re-read the truth next time
+                System.err.println("❌ Dropping " + written.points + " XP for " + userId + " after " + written.attempts + " attempts");
+            }
+            stripe.flushing.remove(userId);
+            stripe.settles++;
+            stripe.settled.signalAll();
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    // Drops this node's view of a user, e.g. after their document was rewritten elsewhere
+    public void evict(String userId) {
+        Stripe stripe = stripe(userId);
+        stripe.lock.lock();
+        try {
+            stripe.states.remove(userId);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    private int pendingUsers() {
+        int total = 0;
+        for (Stripe stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                total += stripe.pending.size() + stripe.flushing.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return total;
+    }
+
+    private Stripe stripe(String userId) {
+        return stripes[Math.floorMod(userId.hashCode(), STRIPES)];
+    }
+}
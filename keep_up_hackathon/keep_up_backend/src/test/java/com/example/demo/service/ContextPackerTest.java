@@ -0,0 +1,128 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Toon;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContextPackerTest {
+
+	private static final long HOUR_MS = 3_600_000L;
+
+	private final ContextPacker packer = new ContextPacker();
+
+	@Test
+	void estimatesTokensFromCharactersAndWords() {
+		assertEquals(0, ContextPacker.estimateTokens(""));
+		assertEquals(0, ContextPacker.estimateTokens(null));
+		assertEquals(3, ContextPacker.estimateTokens("abcdefghij"));
+		// Many short words: the word count dominates
+		assertEquals(7, ContextPacker.estimateTokens("a b c d e"));
+	}
+
+	@Test
+	void includesEverythingThatFits() {
+		List<Toon> ranked = List.of(
+				story("Central bank raises rates", "Inflation remains high, the bank said.", 0),
+				story("Chip maker unveils processor", "It doubles performance.", 0));
+
+		ContextPacker.Packed packed = packer.pack(ranked, 1_000);
+
+		assertEquals(2, packed.included().size());
+		assertEquals(0, packed.truncated() + packed.dropped() + packed.redundant());
+		assertEquals("- Central bank raises rates: Inflation remains high, the bank said.", packed.lines().get(0));
+		assertEquals(packed.lines().stream().mapToInt(l -> ContextPacker.estimateTokens(l) + 1).sum(), packed.usedTokens());
+	}
+
+	@Test
+	void neverExceedsTheBudget() {
+		String long1 = "word ".repeat(200).trim();
+		List<Toon> ranked = List.of(
+				story("First story", long1, 0),
+				story("Second story about elections", long1, 0),
+				story("Third story about football", long1, 0));
+
+		for (int budget : new int[]{10, 40, 100, 250, 400}) {
+			ContextPacker.Packed packed = packer.pack(ranked, budget);
+			assertTrue(packed.usedTokens() <= budget, "used " + packed.usedTokens() + " of " + budget);
+			int lineTokens = packed.lines().stream().mapToInt(l -> ContextPacker.estimateTokens(l) + 1).sum();
+			assertEquals(lineTokens, packed.usedTokens());
+		}
+	}
+
+	@Test
+	void truncatesTheLastStoryAtAWordBoundary() {
+		Toon first = story("Space agency launches lunar probe", "The rocket lifted off on schedule from the coast.", 0);
+		Toon second = story("Football club wins the league title",
+				"Fans celebrated downtown late into the night after the final whistle sealed a dramatic season finale.", 0);
+		int firstCost = ContextPacker.estimateTokens("- " + first.getTitle() + ": " + first.getDescription()) + 1;
+
+		ContextPacker.Packed packed = packer.pack(List.of(first, second), firstCost + 30);
+
+		assertEquals(1, packed.truncated());
+		String cut = packed.lines().get(1);
+		assertTrue(cut.endsWith("…"), cut);
+		String kept = cut.substring(cut.indexOf(": ") + 2, cut.length() - 1);
+		assertTrue(second.getDescription().startsWith(kept + " "), "cut mid-word: " + cut);
+	}
+
+	@Test
+	void dropsWhatCannotBeUsefullyTruncated() {
+		Toon first = story("Space agency launches lunar probe", "The rocket lifted off on schedule.", 0);
+		Toon second = story("Football club wins the league title", "Fans celebrated downtown late into the night.", 0);
+		int firstCost = ContextPacker.estimateTokens("- " + first.getTitle() + ": " + first.getDescription()) + 1;
+
+		ContextPacker.Packed packed = packer.pack(List.of(first, second), firstCost + 10);
+
+		assertEquals(List.of(first), packed.included());
+		assertEquals(1, packed.dropped());
+	}
+
+	@Test
+	void skipsNearDuplicates() {
+		Toon original = story("Central bank raises interest rates", "The central bank raised interest rates again.", 0);
+		Toon rewrite = story("Central bank raises interest rates again", "The central bank raised its interest rates.", 0);
+		Toon other = story("Chip maker unveils processor", "It doubles performance.", 0);
+
+		ContextPacker.Packed packed = packer.pack(List.of(original, rewrite, other), 1_000);
+
+		assertEquals(List.of(original, other), packed.included());
+		assertEquals(1, packed.redundant());
+	}
+
+	@Test
+	void prefersRecentStoriesAtSimilarRelevance() {
+		Toon top = story("Chip maker unveils processor", "It doubles performance.", 0);
+		Toon old = story("Election results announced", "Turnout was high.", 72 * HOUR_MS);
+		Toon fresh = story("Football club wins league", "Fans celebrated.", 0);
+
+		// Ranks 1 and 2 are close in relevance, so the three-day-old story falls behind the fresh one
+		assertEquals(List.of(top, fresh, old), packer.pack(List.of(top, old, fresh), 1_000).included());
+	}
+
+	@Test
+	void relevanceOutweighsRecencyAtTheTop() {
+		Toon old = story("Election results announced", "Turnout was high.", 72 * HOUR_MS);
+		Toon fresh = story("Football club wins league", "Fans celebrated.", 0);
+
+		assertEquals(List.of(old, fresh), packer.pack(List.of(old, fresh), 1_000).included());
+	}
+
+	@Test
+	void keepsRelevanceOrderForStoriesOfTheSameAge() {
+		Toon a = story("Election results announced", "Turnout was high.", HOUR_MS);
+		Toon b = story("Football club wins league", "Fans celebrated.", HOUR_MS);
+		Toon c = story("Chip maker unveils processor", "It doubles performance.", HOUR_MS);
+
+		assertEquals(List.of(a, b, c), packer.pack(List.of(a, b, c), 1_000).included());
+	}
+
+	private static Toon story(String title, String description, long ageMs) {
+		Toon toon = new Toon(title, description, null, null, "World", List.of(), null);
+		toon.setId(title);
+		toon.setTimestamp(System.currentTimeMillis() - ageMs);
+		return toon;
+	}
+}
@@ -0,0 +1,112 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Toon;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DuplicateStoryDetectorTest {
+
+	private final DuplicateStoryDetector detector = new DuplicateStoryDetector(new SimpleMeterRegistry());
+
+	@Test
+	void hashesWithinTheThresholdShareABand() {
+		Random random = new Random(7);
+		for (int trial = 0; trial < 10_000; trial++) {
+			long hash = random.nextLong();
+			long other = hash;
+			int flips = 1 + random.nextInt(DuplicateStoryDetector.MAX_HAMMING_DISTANCE);
+			while (Long.bitCount(hash ^ other) < flips) other ^= 1L << random.nextInt(64);
+
+			assertTrue(sharesBand(hash, other), "distance " + flips + " must share a band");
+		}
+	}
+
+	@Test
+	void oneFlipPerBandSharesNoBand() {
+		long hash = 0x0123_4567_89ab_cdefL;
+		long other = hash;
+		for (int band = 0; band < DuplicateStoryDetector.BANDS; band++) {
+			other ^= 1L << (band * (64 / DuplicateStoryDetector.BANDS));
+		}
+
+		assertEquals(DuplicateStoryDetector.MAX_HAMMING_DISTANCE + 1, Long.bitCount(hash ^ other));
+		assertFalse(sharesBand(hash, other));
+	}
+
+	@Test
+	void findsARepublishedStory() {
+		Toon original = toon("a", LocalDate.now(), "Central bank raises interest rates to curb inflation",
+				"The central bank raised its benchmark rate by a quarter point on Tuesday, citing persistent inflation.");
+		detector.record(original);
+
+		Toon copy = toon("b", LocalDate.now(), original.getTitle(), original.getDescription());
+		assertEquals(Optional.of("a"), detector.findDuplicate(copy));
+	}
+
+	@Test
+	void findsALightlyEditedStory() {
+		Toon original = toon("a", LocalDate.now(), "Space agency delays lunar mission after engine test fails",
+				"The space agency postponed its crewed lunar mission by six months after an engine test failed in Texas, officials said.");
+		detector.record(original);
+
+		Toon edited = toon("b", LocalDate.now(), original.getTitle(),
+				"The space agency postponed its crewed lunar mission by six months after an engine test failed in Texas, officials confirmed.");
+		assertTrue(Long.bitCount(DuplicateStoryDetector.simHash(original) ^ DuplicateStoryDetector.simHash(edited))
+				<= DuplicateStoryDetector.MAX_HAMMING_DISTANCE);
+		assertEquals(Optional.of("a"), detector.findDuplicate(edited));
+	}
+
+	@Test
+	void ignoresDifferentStories() {
+		Toon original = toon("a", LocalDate.now(), "Central bank raises interest rates to curb inflation",
+				"The central bank raised its benchmark rate by a quarter point on Tuesday.");
+		detector.record(original);
+
+		Toon other = toon("b", LocalDate.now(), "Football club signs striker in record transfer",
+				"The club confirmed the signing of the forward on a five-year deal worth a record fee.");
+		assertTrue(Long.bitCount(DuplicateStoryDetector.simHash(original) ^ DuplicateStoryDetector.simHash(other))
+				> DuplicateStoryDetector.MAX_HAMMING_DISTANCE);
+		assertEquals(Optional.empty(), detector.findDuplicate(other));
+	}
+
+	@Test
+	void onlyMatchesWithinTheWindow() {
+		Toon original = toon("a", LocalDate.now().minusDays(2), "Chip maker unveils new processor",
+				"The company said the chip is twice as fast as its predecessor.");
+		detector.record(original);
+
+		assertTrue(detector.findDuplicate(toon("b", LocalDate.now(), original.getTitle(), original.getDescription())).isPresent());
+		assertTrue(detector.findDuplicate(toon("c", LocalDate.now().plusDays(1), original.getTitle(), original.getDescription())).isEmpty());
+	}
+
+	@Test
+	void forgottenStoriesNoLongerMatch() {
+		Toon original = toon("a", LocalDate.now(), "City council approves housing plan",
+				"The plan adds ten thousand homes over the next decade.");
+		detector.record(original);
+		detector.forget("a");
+
+		assertEquals(Optional.empty(), detector.findDuplicate(toon("b", LocalDate.now(), original.getTitle(), original.getDescription())));
+	}
+
+	private static boolean sharesBand(long a, long b) {
+		for (int band = 0; band < DuplicateStoryDetector.BANDS; band++) {
+			if (DuplicateStoryDetector.bandValue(a, band) == DuplicateStoryDetector.bandValue(b, band)) return true;
+		}
+		return false;
+	}
+
+	private static Toon toon(String id, LocalDate date, String title, String description) {
+		Toon toon = new Toon(title, description, null, null, "World", List.of(), null);
+		toon.setId(id);
+		toon.setPublishedDate(date.toString());
+		return toon;
+	}
+}
@@ -0,0 +1,110 @@
+package com.example.demo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FenwickTreeTest {
+
+	@Test
+	void prefixSumsMatchAPlainArray() {
+		for (int size : new int[]{1, 2, 7, 8, 100, 1024}) {
+			RankIndex.FenwickTree tree = new RankIndex.FenwickTree(size);
+			long[] counts = fill(tree, size, new Random(size));
+
+			long running = 0;
+			for (int i = 0; i < size; i++) {
+				running += counts[i];
+				assertEquals(running, tree.prefixSum(i), "size " + size + ", index " + i);
+			}
+			assertEquals(running, tree.total());
+		}
+	}
+
+	@Test
+	void movingAUserKeepsTheTotal() {
+		RankIndex.FenwickTree tree = new RankIndex.FenwickTree(101);
+		tree.add(10, 1);
+		tree.add(50, 1);
+		tree.add(100, 1);
+
+		tree.add(10, -1);
+		tree.add(75, 1);
+
+		assertEquals(3, tree.total());
+		assertEquals(0, tree.prefixSum(49));
+		assertEquals(1, tree.prefixSum(50));
+		assertEquals(2, tree.prefixSum(99));
+		assertEquals(3, tree.prefixSum(100));
+	}
+
+	@Test
+	void countAboveIsTheTotalMinusThePrefix() {
+		RankIndex.FenwickTree tree = new RankIndex.FenwickTree(200);
+		fill(tree, 200, new Random(11));
+
+		for (int i = 0; i < 200; i++) assertEquals(tree.total() - tree.prefixSum(i), tree.countAbove(i), "index " + i);
+		assertEquals(0, tree.countAbove(199));
+	}
+
+	@Test
+	void snapshotRecoversPerBucketCounts() {
+		for (int size : new int[]{1, 5, 16, 33, 500}) {
+			RankIndex.FenwickTree tree = new RankIndex.FenwickTree(size);
+			long[] counts = fill(tree, size, new Random(31L * size));
+
+			long[] snapshot = tree.snapshot();
+			assertEquals(size + 1, snapshot.length);
+			for (int i = 0; i < size; i++) assertEquals(counts[i], snapshot[i + 1], "size " + size + ", bucket " + i);
+		}
+	}
+
+	@Test
+	void snapshotDoesNotChangeTheTree() {
+		RankIndex.FenwickTree tree = new RankIndex.FenwickTree(64);
+		fill(tree, 64, new Random(7));
+		long before = tree.prefixSum(40);
+
+		tree.snapshot();
+
+		assertEquals(before, tree.prefixSum(40));
+	}
+
+	@Test
+	void distanceSumsPerBucketDifferences() {
+		RankIndex.FenwickTree a = new RankIndex.FenwickTree(20);
+		RankIndex.FenwickTree b = new RankIndex.FenwickTree(20);
+		a.add(3, 2);
+		a.add(7, 1);
+		b.add(3, 1);
+		b.add(12, 4);
+
+		assertEquals(1 + 1 + 4, a.distance(b));
+		assertEquals(a.distance(b), b.distance(a));
+	}
+
+	@Test
+	void identicalContentsHaveNoDistance() {
+		RankIndex.FenwickTree a = new RankIndex.FenwickTree(300);
+		RankIndex.FenwickTree b = new RankIndex.FenwickTree(300);
+		fill(a, 300, new Random(3));
+		fill(b, 300, new Random(3));
+
+		assertEquals(0, a.distance(b));
+		assertEquals(0, a.distance(a));
+	}
+
+	// Random adds and removals; returns the expected count per bucket
+	private static long[] fill(RankIndex.FenwickTree tree, int size, Random random) {
+		long[] counts = new long[size];
+		for (int n = 0; n < size * 3; n++) {
+			int bucket = random.nextInt(size);
+			long delta = counts[bucket] > 0 && random.nextInt(4) == 0 ? -1 : 1;
+			tree.add(bucket, delta);
+			counts[bucket] += delta;
+		}
+		return counts;
+	}
+}
@@ -0,0 +1,148 @@
+package com.example.demo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HnswIndexTest {
+
+	private static final String[] SUBJECTS = {"central bank", "football club", "chip maker", "city council", "space agency",
+			"climate summit", "oil producer", "film festival", "vaccine trial", "election board", "tennis star", "car maker"};
+	private static final String[] VERBS = {"raises", "cuts", "announces", "delays", "wins", "loses", "launches", "rejects"};
+	private static final String[] OBJECTS = {"interest rates", "transfer budget", "new processor", "housing plan", "lunar mission",
+			"emission targets", "output quota", "award lineup", "booster dose", "vote count", "grand slam", "electric model"};
+
+	private final LocalHashingEmbeddingModel model = new LocalHashingEmbeddingModel();
+
+	@Test
+	void findsTheSameTextFirst() {
+		HnswIndex index = new HnswIndex(LocalHashingEmbeddingModel.DIMENSIONS);
+		List<String> texts = headlines(300, 1);
+		for (int i = 0; i < texts.size(); i++) index.add("s" + i, model.embedText(texts.get(i)));
+
+		for (int i = 0; i < texts.size(); i += 17) {
+			List<HnswIndex.Match> matches = index.search(model.embedText(texts.get(i)), 1);
+			assertEquals(1, matches.size());
+			assertEquals(1.0f, matches.get(0).score(), 1e-4f);
+			assertEquals(texts.get(i), texts.get(Integer.parseInt(matches.get(0).id().substring(1))));
+		}
+	}
+
+	@Test
+	void resultsAreOrderedBestFirst() {
+		HnswIndex index = new HnswIndex(LocalHashingEmbeddingModel.DIMENSIONS);
+		List<String> texts = headlines(200, 2);
+		for (int i = 0; i < texts.size(); i++) index.add("s" + i, model.embedText(texts.get(i)));
+
+		List<HnswIndex.Match> matches = index.search(model.embedText("central bank raises interest rates"), 10);
+
+		assertEquals(10, matches.size());
+		for (int i = 1; i < matches.size(); i++) {
+			assertTrue(matches.get(i - 1).score() >= matches.get(i).score(), "scores must not increase");
+		}
+	}
+
+	@Test
+	void recallAgainstExactSearch() {
+		HnswIndex index = new HnswIndex(LocalHashingEmbeddingModel.DIMENSIONS);
+		List<String> texts = headlines(1000, 3);
+		List<float[]> vectors = new ArrayList<>();
+		for (int i = 0; i < texts.size(); i++) {
+			vectors.add(model.embedText(texts.get(i)));
+			index.add("s" + i, vectors.get(i));
+		}
+
+		int k = 10;
+		int hits = 0;
+		List<String> queries = headlines(50, 4);
+		for (String query : queries) {
+			float[] q = model.embedText(query);
+			// Ties at the k-th score are interchangeable, so compare against the exact k-th score
+			double kth = kthScore(q, vectors, k);
+			for (HnswIndex.Match match : index.search(q, k)) {
+				if (match.score() >= kth - 1e-5) hits++;
+			}
+		}
+
+		double recall = hits / (double) (queries.size() * k);
+		assertTrue(recall >= 0.9, "recall@10 was " + recall);
+	}
+
+	@Test
+	void removedAndReplacedIdsAreNotReturnedTwice() {
+		HnswIndex index = new HnswIndex(LocalHashingEmbeddingModel.DIMENSIONS);
+		index.add("a", model.embedText("space agency launches lunar mission"));
+		index.add("b", model.embedText("football club wins grand slam"));
+		index.add("c", model.embedText("chip maker announces new processor"));
+
+		index.remove("b");
+		index.add("c", model.embedText("space agency delays lunar mission"));
+
+		List<HnswIndex.Match> matches = index.search(model.embedText("lunar mission"), 5);
+		assertEquals(List.of("a", "c"), matches.stream().map(HnswIndex.Match::id).sorted().toList());
+		assertEquals(2, index.size());
+		assertFalse(index.contains("b"));
+	}
+
+	@Test
+	void compactsOnceTombstonesPassTheThreshold() {
+		HnswIndex index = new HnswIndex(LocalHashingEmbeddingModel.DIMENSIONS);
+		List<String> texts = headlines(400, 5);
+		for (int i = 0; i < texts.size(); i++) index.add("s" + i, model.embedText(texts.get(i)));
+
+		for (int i = 0; i < 20; i++) index.remove("s" + i);
+		assertEquals(20, index.deletedCount(), "a few tombstones are kept");
+
+		for (int i = 20; i < 200; i++) index.remove("s" + i);
+		assertTrue(index.deletedCount() < 400 * 0.2, "tombstones were " + index.deletedCount());
+		assertEquals(200, index.size());
+
+		String text = texts.get(250);
+		List<HnswIndex.Match> matches = index.search(model.embedText(text), 3);
+		assertEquals(3, matches.size());
+		assertEquals(1.0f, matches.get(0).score(), 1e-4f);
+		assertTrue(matches.stream().noneMatch(m -> Integer.parseInt(m.id().substring(1)) < 200));
+	}
+
+	@Test
+	void rejectsWrongDimensions() {
+		HnswIndex index = new HnswIndex(LocalHashingEmbeddingModel.DIMENSIONS);
+		assertThrows(IllegalArgumentException.class, () -> index.add("x", new float[3]));
+	}
+
+	// Random subject/verb/object headlines, unique within one call
+	private static List<String> headlines(int count, long seed) {
+		Random random = new Random(seed);
+		Set<String> seen = new HashSet<>();
+		List<String> texts = new ArrayList<>();
+		while (texts.size() < count) {
+			String text = SUBJECTS[random.nextInt(SUBJECTS.length)] + " " + VERBS[random.nextInt(VERBS.length)] + " "
+					+ OBJECTS[random.nextInt(OBJECTS.length)] + " in " + (1990 + random.nextInt(40));
+			if (seen.add(text)) texts.add(text);
+		}
+		return texts;
+	}
+
+	private static double kthScore(float[] query, List<float[]> vectors, int k) {
+		return vectors.stream()
+				.mapToDouble(v -> dot(query, v))
+				.boxed()
+				.sorted(Comparator.reverseOrder())
+				.skip(k - 1)
+				.findFirst()
+				.orElseThrow();
+	}
+
+	private static double dot(float[] a, float[] b) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) sum += a[i] * b[i];
+		return sum;
+	}
+}
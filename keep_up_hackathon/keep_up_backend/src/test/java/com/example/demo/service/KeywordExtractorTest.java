@@ -0,0 +1,112 @@
+package com.example.demo.service;
+
+import com.example.demo.model.Toon;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeywordExtractorTest {
+
+	private final NewsSearchIndex searchIndex = new NewsSearchIndex();
+	private final AtomicInteger modelCalls = new AtomicInteger();
+
+	// Only the fallback is exercised, so the model-facing collaborators are never touched
+	private final VertexAiService vertexAiService = new VertexAiService(null, null, null, null, null) {
+		@Override
+		public String extractSearchKeywords(String userQuestion) {
+			modelCalls.incrementAndGet();
+			return "model keywords";
+		}
+	};
+
+	private final KeywordExtractor extractor = new KeywordExtractor(searchIndex, vertexAiService, new SimpleMeterRegistry());
+
+	@Test
+	void ranksRareTermsAboveCommonOnes() {
+		index(
+				story("1", "Central bank raises interest rates", "The bank said inflation remains high."),
+				story("2", "Bank shares fall after earnings", "Bank stocks slid on weaker profits."),
+				story("3", "Bank opens new branches", "The bank is expanding in rural areas."),
+				story("4", "Chip maker unveils processor", "The new chip doubles performance."));
+
+		List<KeywordExtractor.Keyword> keywords = extractor.extractLocal("Why did the bank raise interest rates?");
+
+		assertEquals(List.of("raise", "interest", "rates"), keywords.stream().map(KeywordExtractor.Keyword::term).toList());
+		assertTrue(keywords.get(0).weight() >= keywords.get(keywords.size() - 1).weight());
+	}
+
+	@Test
+	void matchesInflectedQuestionTerms() {
+		index(
+				story("1", "Council votes on housing plan", "Members voted late on Tuesday."),
+				story("2", "Football club signs striker", "The deal was confirmed."));
+
+		List<KeywordExtractor.Keyword> keywords = extractor.extractLocal("how did the council vote on housing");
+
+		assertEquals(List.of("council", "vote", "housing"), keywords.stream().map(KeywordExtractor.Keyword::term).toList());
+	}
+
+	@Test
+	void repeatedTermsWeighMore() {
+		index(
+				story("1", "Tariffs on imports", "New tariffs take effect."),
+				story("2", "Steel mill reopens", "Workers returned to the mill."),
+				story("3", "Election results announced", "Turnout was high."));
+
+		List<KeywordExtractor.Keyword> keywords = extractor.extractLocal("tariffs steel steel");
+
+		assertEquals(List.of("steel", "tariffs"), keywords.stream().map(KeywordExtractor.Keyword::term).toList());
+	}
+
+	@Test
+	void keepsAtMostThreeKeywords() {
+		index(
+				story("1", "Space agency launches lunar probe", "Rocket lifted off carrying the probe."),
+				story("2", "Football club wins league", "Fans celebrated downtown."));
+
+		assertEquals(3, extractor.extractLocal("space agency lunar rocket probe").size());
+	}
+
+	@Test
+	void fallsBackToTheModelWhenNothingIsDistinctive() {
+		index(
+				story("1", "Central bank raises interest rates", "Inflation remains high."),
+				story("2", "Bank shares fall", "Profits were weaker."));
+
+		assertTrue(extractor.extractLocal("what about the bank").isEmpty());
+		assertEquals("model keywords", extractor.extract("what about the bank"));
+		assertEquals("model keywords", extractor.extract("any updates on the eurozone"));
+		assertEquals(2, modelCalls.get());
+	}
+
+	@Test
+	void answersLocallyWhenConfident() {
+		index(
+				story("1", "Central bank raises interest rates", "Inflation remains high."),
+				story("2", "Football club wins league", "Fans celebrated downtown."));
+
+		assertEquals("interest rates", extractor.extract("interest rates?"));
+		assertEquals(0, modelCalls.get());
+	}
+
+	@Test
+	void emptyIndexHasNoLocalKeywords() {
+		assertTrue(extractor.extractLocal("interest rates").isEmpty());
+	}
+
+	private void index(Toon... toons) {
+		searchIndex.addAll(new ArrayList<>(List.of(toons)));
+	}
+
+	private static Toon story(String id, String title, String description) {
+		Toon toon = new Toon(title, description, null, null, "World", List.of(), null);
+		toon.setId(id);
+		toon.setPublishedDate("2025-01-01");
+		return toon;
+	}
+}
@@ -0,0 +1,218 @@
+package com.example.demo.service;
+
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.ApiException;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LlmExecutorTest {
+
+	private final LlmExecutor executor = new LlmExecutor(Duration.ofMillis(200), 20);
+	private final ExecutorService callers = Executors.newCachedThreadPool();
+
+	@AfterEach
+	void tearDown() {
+		executor.shutdown();
+		callers.shutdownNow();
+	}
+
+	// One scripted response per model call; calls beyond the script repeat the last one
+	private static final class StubChatModel implements ChatModel {
+
+		interface Step {
+			String run() throws Exception;
+		}
+
+		private final List<Step> steps;
+		private final AtomicInteger calls = new AtomicInteger();
+
+		StubChatModel(Step... steps) {
+			this.steps = List.of(steps);
+		}
+
+		@Override
+		public ChatResponse call(Prompt prompt) {
+			int index = Math.min(calls.getAndIncrement(), steps.size() - 1);
+			try {
+				return new ChatResponse(List.of(new Generation(new AssistantMessage(steps.get(index).run()))));
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		int calls() {
+			return calls.get();
+		}
+	}
+
+	private static LlmExecutor.Call call(ChatModel model) {
+		return () -> model.call(new Prompt("prompt")).getResult().getOutput().getText();
+	}
+
+	private static LlmExecutor.Policy policy(int maxConcurrent, int maxAttempts) {
+		return new LlmExecutor.Policy(maxConcurrent, Duration.ofSeconds(2), maxAttempts, null);
+	}
+
+	@Test
+	void retriesRetryableErrors() {
+		StubChatModel model = new StubChatModel(
+				() -> { throw new StatusRuntimeException(Status.UNAVAILABLE); },
+				() -> { throw new ApiException(null, GrpcStatusCode.of(Status.Code.RESOURCE_EXHAUSTED), true); },
+				() -> "ok");
+
+		assertEquals("ok", executor.execute("op", "k", policy(1, 3), call(model)));
+		assertEquals(3, model.calls());
+	}
+
+	@Test
+	void failsFastOnNonRetryableErrors() {
+		StubChatModel model = new StubChatModel(() -> { throw new StatusRuntimeException(Status.INVALID_ARGUMENT); });
+
+		assertThrows(StatusRuntimeException.class, () -> executor.execute("op", "k", policy(1, 3), call(model)));
+		assertEquals(1, model.calls());
+	}
+
+	@Test
+	void stopsAfterMaxAttempts() {
+		StubChatModel model = new StubChatModel(() -> { throw new StatusRuntimeException(Status.UNAVAILABLE); });
+
+		assertThrows(StatusRuntimeException.class, () -> executor.execute("op", "k", policy(1, 2), call(model)));
+		assertEquals(2, model.calls());
+	}
+
+	@Test
+	void retriesTimedOutAttempts() {
+		StubChatModel model = new StubChatModel(() -> { Thread.sleep(5_000); return "late"; }, () -> "ok");
+		LlmExecutor.Policy policy = new LlmExecutor.Policy(1, Duration.ofMillis(100), 2, null);
+
+		assertEquals("ok", executor.execute("op", "k", policy, call(model)));
+		assertEquals(2, model.calls());
+	}
+
+	@Test
+	void classifiesByStatusCodeNotMessage() {
+		assertTrue(LlmExecutor.isRetryable(new StatusRuntimeException(Status.RESOURCE_EXHAUSTED)));
+		assertTrue(LlmExecutor.isRetryable(new ExecutionException(new StatusRuntimeException(Status.DEADLINE_EXCEEDED))));
+		assertTrue(LlmExecutor.isRetryable(new ApiException(null, GrpcStatusCode.of(Status.Code.UNAVAILABLE), true)));
+		assertTrue(LlmExecutor.isRetryable(new TimeoutException()));
+
+		assertFalse(LlmExecutor.isRetryable(new ApiException(null, GrpcStatusCode.of(Status.Code.PERMISSION_DENIED), false)));
+		assertFalse(LlmExecutor.isRetryable(new IllegalStateException("order 4290 failed with code 503")));
+		assertFalse(LlmExecutor.isRetryable(new IllegalArgumentException("UNAVAILABLE")));
+	}
+
+	@Test
+	void rejectsWhenTheBulkheadIsFull() throws Exception {
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		StubChatModel blocking = new StubChatModel(() -> { entered.countDown(); release.await(); return "first"; });
+		Future<String> first = callers.submit(() -> executor.execute("op", "a", policy(1, 1), call(blocking)));
+		assertTrue(entered.await(1, TimeUnit.SECONDS));
+
+		StubChatModel other = new StubChatModel(() -> "second");
+		assertThrows(LlmExecutor.LlmUnavailableException.class, () -> executor.execute("op", "b", policy(1, 1), call(other)));
+		assertEquals(0, other.calls());
+
+		release.countDown();
+		assertEquals("first", first.get(1, TimeUnit.SECONDS));
+		assertEquals("second", executor.execute("op", "b", policy(1, 1), call(other)));
+	}
+
+	@Test
+	void releasesThePermitWhileBackingOff() throws Exception {
+		LlmExecutor slowBackoff = new LlmExecutor(Duration.ofMillis(200), 2_000);
+		try {
+			CountDownLatch failed = new CountDownLatch(1);
+			StubChatModel flaky = new StubChatModel(
+					() -> { failed.countDown(); throw new StatusRuntimeException(Status.UNAVAILABLE); },
+					() -> "retried");
+			Future<String> retrying = callers.submit(() -> slowBackoff.execute("op", "a", policy(1, 2), call(flaky)));
+			assertTrue(failed.await(1, TimeUnit.SECONDS));
+			Thread.sleep(50);
+
+			// The first caller sleeps at least 1s before retrying; its permit is free meanwhile
+			StubChatModel other = new StubChatModel(() -> "other");
+			assertEquals("other", slowBackoff.execute("op", "b", policy(1, 1), call(other)));
+
+			assertEquals("retried", retrying.get(5, TimeUnit.SECONDS));
+		} finally {
+			slowBackoff.shutdown();
+		}
+	}
+
+	@Test
+	void identicalConcurrentCallsShareOneModelCall() throws Exception {
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		StubChatModel model = new StubChatModel(() -> { entered.countDown(); release.await(); return "shared"; });
+
+		Future<String> leader = callers.submit(() -> executor.execute("op", "same", policy(4, 1), call(model)));
+		assertTrue(entered.await(1, TimeUnit.SECONDS));
+		Future<String> follower = callers.submit(() -> executor.execute("op", "same", policy(4, 1), call(model)));
+		Thread.sleep(100);
+		release.countDown();
+
+		assertEquals("shared", leader.get(1, TimeUnit.SECONDS));
+		assertEquals("shared", follower.get(1, TimeUnit.SECONDS));
+		assertEquals(1, model.calls());
+	}
+
+	@Test
+	void followersSeeTheLeadersFailure() throws Exception {
+		CountDownLatch entered = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		StubChatModel model = new StubChatModel(() -> {
+			entered.countDown();
+			release.await();
+			throw new StatusRuntimeException(Status.INVALID_ARGUMENT);
+		});
+
+		Future<String> leader = callers.submit(() -> executor.execute("op", "same", policy(4, 1), call(model)));
+		assertTrue(entered.await(1, TimeUnit.SECONDS));
+		Future<String> follower = callers.submit(() -> executor.execute("op", "same", policy(4, 1), call(model)));
+		Thread.sleep(100);
+		release.countDown();
+
+		ExecutionException leaderError = assertThrows(ExecutionException.class, () -> leader.get(1, TimeUnit.SECONDS));
+		ExecutionException followerError = assertThrows(ExecutionException.class, () -> follower.get(1, TimeUnit.SECONDS));
+		assertTrue(leaderError.getCause() instanceof StatusRuntimeException);
+		assertTrue(followerError.getCause() instanceof StatusRuntimeException);
+		assertEquals(1, model.calls());
+	}
+
+	@Test
+	void hedgesASlowAttempt() {
+		StubChatModel model = new StubChatModel(() -> { Thread.sleep(5_000); return "slow"; }, () -> "hedged");
+		LlmExecutor.Policy policy = new LlmExecutor.Policy(2, Duration.ofSeconds(2), 1, Duration.ofMillis(50));
+
+		long start = System.nanoTime();
+		assertEquals("hedged", executor.execute("op", "k", policy, call(model)));
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1_000);
+		assertEquals(2, model.calls());
+	}
+
+	@Test
+	void doesNotHedgeWithoutSpareCapacity() {
+		StubChatModel model = new StubChatModel(() -> { Thread.sleep(200); return "only"; });
+		LlmExecutor.Policy policy = new LlmExecutor.Policy(1, Duration.ofSeconds(2), 1, Duration.ofMillis(50));
+
+		assertEquals("only", executor.execute("op", "k", policy, call(model)));
+		assertEquals(1, model.calls());
+	}
+}
@@ -0,0 +1,105 @@
+package com.example.demo.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LlmJsonParserTest {
+
+	private final LlmJsonParser parser = new LlmJsonParser();
+
+	@Test
+	void stripsFencesAndProseAroundTheArray() {
+		String text = "Sure! Here are the stories [1]:\n```json\n"
+				+ "[{\"title\": \"A\", \"description\": \"a\", \"topic\": \"Tech\"}]\n```\nHope this helps.";
+
+		LlmJsonParser.Result<JsonNode> result = parser.parseArray(text, LlmJsonParser.TOON);
+
+		assertTrue(result.isFound());
+		assertEquals(1, result.getItems().size());
+		assertEquals("A", result.getItems().get(0).get("title").asText());
+		assertTrue(result.getRejected().isEmpty());
+	}
+
+	@Test
+	void salvagesItemsBeforeATruncatedMember() {
+		String text = "[{\"title\": \"A\", \"description\": \"a\", \"topic\": \"Tech\"},"
+				+ " {\"title\": \"B\", \"description\": \"b\", \"topic\": \"World\"},"
+				+ " {\"title\": \"C\", \"descrip";
+
+		LlmJsonParser.Result<JsonNode> result = parser.parseArray(text, LlmJsonParser.TOON);
+
+		assertEquals(2, result.getItems().size());
+		assertEquals(List.of("[2]: truncated"), result.getRejected());
+	}
+
+	@Test
+	void rejectsMalformedAndInvalidMembersIndividually() {
+		String text = "[{\"title\": \"A\", \"description\": \"a\", \"topic\": \"Tech\"},"
+				+ " {\"title\": \"B\" \"description\": \"b\"},"
+				+ " {\"title\": \"C\", \"description\": \"c\"},"
+				+ " {\"title\": \"D\", \"description\": \"d\", \"topic\": \"Sports\",},]";
+
+		LlmJsonParser.Result<JsonNode> result = parser.parseArray(text, LlmJsonParser.TOON);
+
+		assertEquals(2, result.getItems().size());
+		assertEquals("D", result.getItems().get(1).get("title").asText());
+		assertEquals(List.of("[1]: malformed JSON", "[2]: missing field 'topic'"), result.getRejected());
+	}
+
+	@Test
+	void keepsBracketsAndCommasInsideStrings() {
+		String text = "[{\"title\": \"Rates, [again]\", \"description\": \"He said \\\"}, {\\\"\", \"topic\": \"Economy\"}]";
+
+		LlmJsonParser.Result<JsonNode> result = parser.parseArray(text, LlmJsonParser.TOON);
+
+		assertEquals(1, result.getItems().size());
+		assertEquals("Rates, [again]", result.getItems().get(0).get("title").asText());
+	}
+
+	@Test
+	void reportsMissingArray() {
+		LlmJsonParser.Result<JsonNode> result = parser.parseArray("I could not find any news today.", LlmJsonParser.TOON);
+
+		assertFalse(result.isFound());
+		assertTrue(result.getItems().isEmpty());
+	}
+
+	@Test
+	void validatesQuizQuestions() {
+		String text = "[{\"question\": \"Q1\", \"options\": [\"a\", \"b\"], \"correctIndex\": 1},"
+				+ " {\"question\": \"Q2\", \"options\": [\"a\", \"b\"], \"correctIndex\": 2},"
+				+ " {\"question\": \"Q3\", \"options\": [\"a\"], \"correctIndex\": 0}]";
+
+		LlmJsonParser.Result<JsonNode> result = parser.parseArray(text, LlmJsonParser.QUIZ_QUESTION);
+
+		assertEquals(1, result.getItems().size());
+		assertEquals(List.of("[1]: correctIndex out of range", "[2]: needs at least 2 options"), result.getRejected());
+	}
+
+	@Test
+	void salvagesSectionsFromATruncatedObject() {
+		String text = "{\"Technology\": [{\"question\": \"T1\", \"options\": [\"a\", \"b\"], \"correctIndex\": 0}],"
+				+ " \"Sports\": [{\"question\": \"S1\", \"options\": [\"a\", \"b\"], \"correctIndex\": 1},"
+				+ " {\"question\": \"S2\", \"opt";
+
+		LlmJsonParser.Result<LlmJsonParser.Section> result = parser.parseSections(text, LlmJsonParser.QUIZ_QUESTION);
+
+		assertTrue(result.isFound());
+		assertEquals(2, result.getItems().size());
+		assertEquals("Technology", result.getItems().get(0).name());
+		assertEquals("Sports", result.getItems().get(1).name());
+		assertEquals(1, result.getItems().get(1).items().size());
+		assertEquals(List.of("Sports[1]: truncated"), result.getRejected());
+	}
+
+	@Test
+	void extractsJsonTextWithoutFences() {
+		String text = "```json\n{\"a\": [1, 2]}\n```";
+
+		assertEquals("{\"a\": [1, 2]}", parser.extractJsonText(text));
+	}
+}
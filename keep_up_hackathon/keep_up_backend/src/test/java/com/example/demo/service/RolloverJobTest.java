@@ -0,0 +1,151 @@
+package com.example.demo.service;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RolloverJobTest {
+
+	// A Sunday, so also the last day of the week
+	private static final LocalDate DAY = LocalDate.of(2026, 10, 18);
+	private static final String TODAY = DAY.toString();
+	private static final String YESTERDAY = DAY.minusDays(1).toString();
+	private static final String NEXT_WEEK = DAY.plusDays(1).toString();
+
+	private final RolloverJob job = new RolloverJob(mock(Firestore.class), null, new SimpleMeterRegistry(),
+			32, 8, 5000, 500, 100, DayOfWeek.SUNDAY);
+
+	@Test
+	void playingTheDayAfterTheLastStreakDayContinuesIt() {
+		Map<String, Object> changes = job.rollover(user("streak", 4L, "streakDate", YESTERDAY, "lastActiveDate", TODAY), DAY, false);
+
+		assertEquals(5L, changes.get("streak"));
+		assertEquals(TODAY, changes.get("streakDate"));
+	}
+
+	@Test
+	void aQuizEarlyNextMorningStillCountsForTheDay() {
+		Map<String, Object> changes = job.rollover(user("streak", 4L, "streakDate", YESTERDAY,
+				"lastActiveDate", NEXT_WEEK, "prevActiveDate", TODAY), DAY, false);
+
+		assertEquals(5L, changes.get("streak"));
+	}
+
+	@Test
+	void lastPlayedCountsForUsersWithoutActiveDates() {
+		Map<String, Object> changes = job.rollover(user("streak", 2L, "streakDate", YESTERDAY,
+				"lastPlayed", Map.of("tech", TODAY)), DAY, false);
+
+		assertEquals(3L, changes.get("streak"));
+	}
+
+	@Test
+	void playingAfterAGapRestartsAtOne() {
+		Map<String, Object> changes = job.rollover(user("streak", 4L, "streakDate", DAY.minusDays(3).toString(),
+				"lastActiveDate", TODAY), DAY, false);
+
+		assertEquals(1L, changes.get("streak"));
+		assertEquals(TODAY, changes.get("streakDate"));
+	}
+
+	@Test
+	void aFirstDayPlayedStartsAtOne() {
+		Map<String, Object> changes = job.rollover(user("lastActiveDate", TODAY), DAY, false);
+
+		assertEquals(1L, changes.get("streak"));
+	}
+
+	@Test
+	void missingADayResetsTheStreak() {
+		Map<String, Object> changes = job.rollover(user("streak", 4L, "streakDate", YESTERDAY, "lastActiveDate", YESTERDAY), DAY, false);
+
+		assertEquals(0, ((Number) changes.get("streak")).intValue());
+		assertEquals(TODAY, changes.get("streakDate"));
+	}
+
+	@Test
+	void missingADayAtZeroWritesNothing() {
+		assertTrue(job.rollover(user("streak", 0L, "streakDate", YESTERDAY, "lastActiveDate", YESTERDAY), DAY, false).isEmpty());
+		assertTrue(job.rollover(user(), DAY, false).isEmpty());
+	}
+
+	@Test
+	void rollingOverTheSameDayAgainIsANoOp() {
+		DocumentSnapshot done = user("streak", 5L, "streakDate", TODAY, "lastActiveDate", TODAY,
+				"xp", 1600L, "xpWeekStart", 1600L, "league", "Gold", "weekStart", NEXT_WEEK);
+
+		assertTrue(job.rollover(done, DAY, true).isEmpty());
+	}
+
+	@Test
+	void anOlderDayNeverOverwritesANewerStreak() {
+		assertTrue(job.rollover(user("streak", 5L, "streakDate", TODAY, "lastActiveDate", YESTERDAY),
+				DAY.minusDays(1), false).isEmpty());
+	}
+
+	@Test
+	void leaguesOnlyMoveOnTheLastDayOfTheWeek() {
+		Map<String, Object> changes = job.rollover(user("xp", 5000L, "xpWeekStart", 0L, "league", "Bronze"), DAY, false);
+
+		assertFalse(changes.containsKey("league"));
+		assertFalse(changes.containsKey("xpWeekStart"));
+	}
+
+	@Test
+	void gainingThePromoteThresholdMovesUpOneLeague() {
+		Map<String, Object> changes = job.rollover(user("xp", 1500L, "xpWeekStart", 1000L, "league", "Silver"), DAY, true);
+
+		assertEquals("Gold", changes.get("league"));
+		assertEquals(1500L, changes.get("xpWeekStart"));
+		assertEquals(NEXT_WEEK, changes.get("weekStart"));
+	}
+
+	@Test
+	void theTopLeagueCannotPromote() {
+		assertEquals("Gold", job.rollover(user("xp", 5000L, "xpWeekStart", 0L, "league", "Gold"), DAY, true).get("league"));
+	}
+
+	@Test
+	void gainingLessThanTheDemoteThresholdMovesDownOneLeague() {
+		assertEquals("Bronze", job.rollover(user("xp", 1099L, "xpWeekStart", 1000L, "league", "Silver"), DAY, true).get("league"));
+		assertEquals("Bronze", job.rollover(user("xp", 1000L, "xpWeekStart", 1000L, "league", "Bronze"), DAY, true).get("league"));
+	}
+
+	@Test
+	void gainsBetweenTheThresholdsKeepTheLeague() {
+		assertEquals("Silver", job.rollover(user("xp", 1100L, "xpWeekStart", 1000L, "league", "Silver"), DAY, true).get("league"));
+		assertEquals("Silver", job.rollover(user("xp", 1499L, "xpWeekStart", 1000L, "league", "Silver"), DAY, true).get("league"));
+	}
+
+	@Test
+	void aUserWithoutABaselineOnlyGetsOne() {
+		Map<String, Object> changes = job.rollover(user("xp", 40L), DAY, true);
+
+		assertEquals("Bronze", changes.get("league"));
+		assertEquals(40L, changes.get("xpWeekStart"));
+		assertEquals(NEXT_WEEK, changes.get("weekStart"));
+	}
+
+	// A user document with the given field/value pairs
+	private static DocumentSnapshot user(Object... fields) {
+		Map<String, Object> data = new HashMap<>();
+		for (int i = 0; i < fields.length; i += 2) data.put((String) fields[i], fields[i + 1]);
+
+		DocumentSnapshot doc = mock(DocumentSnapshot.class);
+		when(doc.get(anyString())).thenAnswer(call -> data.get(call.<String>getArgument(0)));
+		when(doc.getString(anyString())).thenAnswer(call -> (String) data.get(call.<String>getArgument(0)));
+		when(doc.getLong(anyString())).thenAnswer(call -> (Long) data.get(call.<String>getArgument(0)));
+		return doc;
+	}
+}
@@ -0,0 +1,58 @@
+package com.example.demo.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TextAnalyzerTest {
+
+	@Test
+	void inflectionsShareAStem() {
+		assertSameStem("rate", "rates", "rated", "rating");
+		assertSameStem("vote", "votes", "voted", "voting");
+		assertSameStem("hope", "hopes", "hoped", "hoping");
+		assertSameStem("ship", "ships", "shipped", "shipping");
+		assertSameStem("compute", "computes", "computed", "computing");
+		assertSameStem("change", "changes", "changed", "changing");
+		assertSameStem("trade", "trades", "traded", "trading");
+		assertSameStem("study", "studies");
+		assertSameStem("election", "elections");
+		assertSameStem("reserve", "reserves", "reserved", "reserving");
+	}
+
+	@Test
+	void keepsShortAndProtectedWords() {
+		assertEquals("bus", TextAnalyzer.stem("bus"));
+		assertEquals("analysis", TextAnalyzer.stem("analysis"));
+		assertEquals("caress", TextAnalyzer.stem("caresses"));
+		assertEquals("agreed", TextAnalyzer.stem("agreed"));
+		assertEquals("free", TextAnalyzer.stem("free"));
+		assertEquals("sing", TextAnalyzer.stem("sing"));
+		assertEquals("covid19", TextAnalyzer.stem("covid19"));
+	}
+
+	@Test
+	void restoresTheSilentE() {
+		assertEquals("rate", TextAnalyzer.stem("rating"));
+		assertEquals("hope", TextAnalyzer.stem("hoping"));
+		assertEquals("hop", TextAnalyzer.stem("hopping"));
+		assertEquals("run", TextAnalyzer.stem("running"));
+	}
+
+	@Test
+	void analyzeDropsStopwordsAndPunctuation() {
+		assertEquals(List.of("federal", "reserve", "say", "interest", "rates", "2025", "budget"),
+				TextAnalyzer.analyze("What did the U.S. Federal Reserve say about interest-rates today, and the 2025 budget?"));
+		assertEquals(List.of("federal", "reserv", "say", "interest", "rate"),
+				TextAnalyzer.analyzeStems("Federal Reserve say interest rates"));
+	}
+
+	private static void assertSameStem(String... words) {
+		String expected = TextAnalyzer.stem(words[0]);
+		for (String word : words) {
+			assertEquals(expected, TextAnalyzer.stem(word), "stem of '" + word + "'");
+		}
+	}
+}